@@ -0,0 +1,102 @@
+import java.nio.ByteBuffer;
+
+
+/**
+ * A fixed-size array of bytes, stored either in a byte[] on the Java heap or in a direct (or memory mapped)
+ * ByteBuffer, see IntArray. Used for the text of the index structures, one byte per character.
+ * */
+public abstract class ByteArray {
+
+	public abstract byte get(int i);
+
+	public abstract void set(int i, byte value);
+
+	public abstract int length();
+
+	public abstract boolean isDirect();
+
+	/**
+	 * copies a string of single-byte characters to the heap
+	 * */
+	public static ByteArray fromString(String str){
+		byte[] array = new byte[str.length()];
+		for (int i=0; i<array.length; i++)
+			array[i] = (byte) str.charAt(i);
+		return new Heap(array);
+	}
+
+	/**
+	 * wraps a direct or mapped buffer, the array ranges over the whole buffer
+	 * */
+	public static ByteArray wrap(ByteBuffer buffer){
+		return new Direct(buffer);
+	}
+
+	/**
+	 * copies the array to a newly allocated off-heap array
+	 * */
+	public ByteArray toDirect(){
+		ByteBuffer buffer = ByteBuffer.allocateDirect(length());
+		for (int i=0; i<length(); i++)
+			buffer.put(i, get(i));
+		return new Direct(buffer);
+	}
+
+	/**
+	 * converts the array to a string of single-byte characters
+	 * */
+	public String toString(){
+		char[] chars = new char[length()];
+		for (int i=0; i<chars.length; i++)
+			chars[i] = (char) (get(i) & 0xff);
+		return new String(chars);
+	}
+
+	private static final class Heap extends ByteArray {
+		private final byte[] array;
+
+		Heap(byte[] array){
+			this.array = array;
+		}
+
+		public byte get(int i){
+			return array[i];
+		}
+
+		public void set(int i, byte value){
+			array[i] = value;
+		}
+
+		public int length(){
+			return array.length;
+		}
+
+		public boolean isDirect(){
+			return false;
+		}
+	}
+
+	private static final class Direct extends ByteArray {
+		private final ByteBuffer buffer;
+
+		Direct(ByteBuffer buffer){
+			this.buffer = buffer;
+		}
+
+		public byte get(int i){
+			return buffer.get(i);
+		}
+
+		public void set(int i, byte value){
+			buffer.put(i, value);
+		}
+
+		public int length(){
+			return buffer.capacity();
+		}
+
+		public boolean isDirect(){
+			return true;
+		}
+	}
+}
@@ -95,6 +95,56 @@ public class DatabaseFileHandler {
 		return text;
 	}
 	
+	/**
+	 * splits a protein database into shards of about the same number of residues, each shard is written to
+	 * its own file (fasta format) so that its index can be built independently, see DoSearch2
+	 * @param proteinDatabaseFile
+	 * 			file name for the protein database
+	 * @param numShards
+	 * 			the number of shards
+	 * @param outputPrefix
+	 * 			shard k is written to outputPrefix.k.fasta
+	 * @return the names of the shard files
+	 * */
+	public Vector<String> splitDatabase(String proteinDatabaseFile, int numShards, String outputPrefix) throws IOException{
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(proteinDatabaseFile)));
+		long total = 0;
+		String line = in.readLine();
+		while (line != null){
+			if (!line.startsWith(">"))
+				total += line.length();
+			line = in.readLine();
+		}
+		in.close();
+		
+		Vector<String> shardFiles = new Vector<String>();
+		in = new BufferedReader(new InputStreamReader(new FileInputStream(proteinDatabaseFile)));
+		BufferedWriter out = null;
+		long length = 0;
+		line = in.readLine();
+		while (line != null){
+			//a new shard begins with the first protein after its share of residues is reached
+			if (line.startsWith(">") && (out == null || (length*numShards >= total*shardFiles.size() && shardFiles.size() < numShards))){
+				if (out != null)
+					out.close();
+				String shardFile = outputPrefix+"."+shardFiles.size()+".fasta";
+				shardFiles.add(shardFile);
+				out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(shardFile)));
+			}
+			else if (!line.startsWith(">"))
+				length += line.length();
+			if (out != null){
+				out.write(line);
+				out.newLine();
+			}
+			line = in.readLine();
+		}
+		if (out != null)
+			out.close();
+		in.close();
+		return shardFiles;
+	}
+	
 	/**
 	 * TEST function, modify the line beginning with ">" by using the index of each sequence (start from 0)
 	 * @param filename input filename for the proteome database
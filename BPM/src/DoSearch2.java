@@ -1,32 +1,78 @@
 
+import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileReader;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 public class DoSearch2 {
 	
 	private MassTable mt;
 	private SuffixTree st;
+	private FlatSuffixTree flatTree;
+	private SuffixArray sa;
+	private FMIndex fmIndex;
+	private LazySuffixTree lazyTree;
+	private LeafPeptideTable leafTable;
+	private RepeatedPeptides repeatedPeptides;//of a unique-peptide index, null for the other indexes
 	private PeptideFileHandler pf;
 	private PatternSearch patternSearch;
+	private IndexSearch indexSearch;
+	private IndexShard[] shards;
 	private static int numResult = 1000000;
 	private ProteinDatabase proteinDatabase;
+	private Vector<Vector<Integer>> peptideTable;
 	private static double massTolerance = 0.05;
 	public static int scaledMassTolerance;
 	private static int MASS_WATER;
 	public static boolean sort = false;
 	public static long startTime;
+	public static final String TREE_INDEX = "tree";
+	public static final String FLAT_INDEX = "flat";
+	public static final String SUFFIX_ARRAY_INDEX = "sa";
+	public static final String FM_INDEX = "fm";
+	public static final String PARALLEL_INDEX = "parallel";
+	public static final String SPARSE_INDEX = "sparse";
+	public static final String UNIQUE_INDEX = "unique";
+	public static final String OFF_HEAP_INDEX = "offheap";
+	public static final String MAPPED_INDEX = "mapped";
+	public static final String SHARDED_INDEX = "sharded";
+	public static final String MAPPED_SHARDS_INDEX = "mapped-shards";
+	public static final String INCREMENTAL_INDEX = "incremental";
+	public static final String LAZY_INDEX = "lazy";
+	public static String indexType = TREE_INDEX;
+	public static String indexFile;
+	public static int numThreads = Runtime.getRuntime().availableProcessors();
+	public static int numShards = numThreads;
+	public static int sparseOffsets = 0;
+	public static boolean reorderNodes = true;
+	public static boolean patternTrie = true;//search the patterns of a scan merged into a PatternTrie
+	public static long frontierCacheSize = 1<<22;//ints held by the FrontierCaches of the flat suffix trees, 0 for no cache
+	public static int searchThreads = 1;//threads searching the scans against a single index, see searchParallel()
+	private static final int SEARCH_WINDOW = 4096;//scans ordered by cost together, their results are kept until written
 	
 	
 	public DoSearch2() throws IOException{
@@ -80,36 +126,415 @@ public class DoSearch2 {
 	
 	
 	public void search(String proteinDatabaseFile, String peptideFile, String outputFile) throws IOException{
+		if (indexType.equals(MAPPED_INDEX))
+			loadIndex(proteinDatabaseFile, indexFile);
+		else if (indexType.equals(SHARDED_INDEX))
+			buildShards(proteinDatabaseFile);
+		else if (indexType.equals(MAPPED_SHARDS_INDEX))
+			loadShards(indexFile);
+		else if (indexType.equals(INCREMENTAL_INDEX))
+			updateIndex(proteinDatabaseFile, indexFile);
+		else
+			buildIndex(proteinDatabaseFile);
+	
+		System.out.print("extract patterns from peptides");
+		pf.computeNumScan(peptideFile);
+		ArrayList<FrontierCache> frontierCaches = new ArrayList<FrontierCache>();
+		FrontierCache frontierCache = null;
+		if (flatTree != null && frontierCacheSize > 0){
+			frontierCache = new FrontierCache(frontierCacheSize, FrontierCache.DEFAULT_MAX_PREFIX_LENGTH);
+			frontierCaches.add(frontierCache);
+		}
+		if (st != null)
+			patternSearch = new PatternSearch(this.st, this.mt, this.pf);
+		else if (shards == null)
+			indexSearch = newIndexSearch(frontierCache);
+		if (shards != null && frontierCacheSize > 0){
+			//each shard has its own tree, the cache space is split between them
+			for (IndexShard shard : shards){
+				FrontierCache cache = new FrontierCache(frontierCacheSize/shards.length, FrontierCache.DEFAULT_MAX_PREFIX_LENGTH);
+				shard.setFrontierCache(cache);
+				frontierCaches.add(cache);
+			}
+		}
+		HashSet<?>[] tagSet = pf.extractPatterns(peptideFile);
+		computeRunningtime();
+		
+		System.out.print("searching...");
+		if (shards != null)
+			searchShards(tagSet, outputFile);
+		else if (searchThreads > 1 && lazyTree == null)
+			searchParallel(tagSet, outputFile, frontierCache);
+		else if (indexSearch != null)
+			searchIndex(tagSet, outputFile);
+		else
+			search(tagSet, peptideTable, outputFile);
+		computeRunningtime();
+		if (!frontierCaches.isEmpty()){
+			long hits = 0, misses = 0;
+			for (FrontierCache cache : frontierCaches){
+				hits += cache.getHits();
+				misses += cache.getMisses();
+			}
+			System.out.println("frontier cache: "+hits+" hits, "+misses+" misses");
+		}
+	}
+	
+	/**
+	 * creates a search of the index with leaves kept in a LeafPeptideTable (flat suffix tree, suffix array, FM-index,
+	 * lazy suffix tree), each search has its own matching state
+	 * @param frontierCache
+	 * 			cache of the flat suffix tree, may be shared by several searches, null for no cache
+	 * */
+	private IndexSearch newIndexSearch(FrontierCache frontierCache){
+		if (flatTree != null){
+			PatternSearch flatSearch = new PatternSearch(this.flatTree, this.mt, this.pf);
+			if (frontierCache != null)
+				flatSearch.setFrontierCache(frontierCache);
+			if (flatTree.getLeafTable().hasUniquePeptides()){
+				if (repeatedPeptides == null)
+					repeatedPeptides = new RepeatedPeptides(flatTree);
+				return new UniquePeptideSearch(flatSearch, repeatedPeptides, flatTree.getLeafTable(), this.mt, this.pf);
+			}
+			return flatSearch;
+		}
+		else if (sa != null)
+			return new SuffixArraySearch(this.sa, leafTable, this.mt, this.pf);
+		else if (fmIndex != null)
+			return new FMIndexSearch(this.fmIndex, leafTable, this.mt, this.pf);
+		else if (lazyTree != null)
+			return new LazySuffixTreeSearch(this.lazyTree, leafTable, this.mt, this.pf);
+		return null;
+	}
+	
+	/**
+	 * loads the protein database, builds the index selected by indexType and computes the peptide masses
+	 * @param proteinDatabaseFile
+	 * 			the protein database (fasta format)
+	 * */
+	private void buildIndex(String proteinDatabaseFile) throws IOException{
 		System.out.print("Loading database");
 		DatabaseFileHandler da = new DatabaseFileHandler();
 		proteinDatabase = da.loadDatabase(proteinDatabaseFile);
 		computeRunningtime();
 		
 		System.out.print("Extract peptides from sequence");
-		Vector<Vector<Integer>> peptideTable = proteinDatabase.extractPeptideFromSeq2();
+		peptideTable = proteinDatabase.extractPeptideFromSeq2();
 		computeRunningtime();
 		
-		System.out.print("constructing suffix tree");
-		this.st = new SuffixTree(proteinDatabase.getSequence(), proteinDatabase);
+		System.out.print("constructing "+indexType+" index");
+		if (indexType.equals(FLAT_INDEX) || indexType.equals(OFF_HEAP_INDEX)){
+			this.flatTree = new FlatSuffixTree(proteinDatabase.getSequence(), proteinDatabase);
+			leafTable = flatTree.getLeafTable();
+		}
+		else if (indexType.equals(PARALLEL_INDEX)){
+			this.flatTree = new ParallelSuffixTreeBuilder(numThreads).build(proteinDatabase.getSequence(), proteinDatabase);
+			leafTable = flatTree.getLeafTable();
+		}
+		else if (indexType.equals(SPARSE_INDEX)){
+			int[] positions = proteinDatabase.getPeptideStartPositions(peptideTable, sparseOffsets);
+			this.flatTree = new ParallelSuffixTreeBuilder(numThreads).build(proteinDatabase.getSequence(), proteinDatabase, positions);
+			leafTable = flatTree.getLeafTable();
+		}
+		else if (indexType.equals(UNIQUE_INDEX)){
+			int[] positions = proteinDatabase.getPeptideDictionary().getFirstOccurrencePositions(sparseOffsets);
+			this.flatTree = new ParallelSuffixTreeBuilder(numThreads).build(proteinDatabase.getSequence(), proteinDatabase, positions);
+			leafTable = flatTree.getLeafTable();
+			leafTable.setUniquePeptides(true);
+		}
+		else if (indexType.equals(SUFFIX_ARRAY_INDEX)){
+			this.sa = new SuffixArray(proteinDatabase.getSequence());
+			leafTable = new LeafPeptideTable(proteinDatabase);
+		}
+		else if (indexType.equals(FM_INDEX)){
+			this.fmIndex = new FMIndex(proteinDatabase.getSequence());
+			leafTable = new LeafPeptideTable(proteinDatabase, false);
+		}
+		else if (indexType.equals(LAZY_INDEX)){
+			this.lazyTree = new LazySuffixTree(proteinDatabase.getSequence());
+			leafTable = new LeafPeptideTable(proteinDatabase);
+		}
+		else {
+			this.st = new SuffixTree(proteinDatabase.getSequence(), proteinDatabase);
+			proteinDatabase.releaseSequence();//the tree reads its packed text
+		}
 		computeRunningtime();
 		
+		if (flatTree != null && reorderNodes)
+			flatTree.reorderNodes();
+		
 		System.out.print("Preprocessing");
-		Preprocessing pp = new Preprocessing(st, proteinDatabase, this, peptideTable);
-		pp.computeMassRangeForNodes(st.getRoot());
+		if (flatTree != null){
+			Preprocessing pp = new Preprocessing(flatTree, proteinDatabase, this, peptideTable);
+			pp.computeMassRangeForNodes(flatTree.getRoot(), numThreads);
+			flatTree.computeLeafIntervals();
+		}
+		else if (sa != null || fmIndex != null || lazyTree != null){
+			Preprocessing pp = new Preprocessing(leafTable, proteinDatabase, this, peptideTable);
+			if (fmIndex == null)
+				pp.computeLeafPeptideMasses();//the FM-index looks the peptides of its located leaves up
+		}
+		else {
+			Preprocessing pp = new Preprocessing(st, proteinDatabase, this, peptideTable);
+			pp.computeMassRangeForNodes(st.getRoot(), numThreads);
+		}
 		proteinDatabase.freeMem(peptideTable);
+		if (indexType.equals(OFF_HEAP_INDEX))
+			flatTree.moveOffHeap();
 		computeRunningtime();
+	}
 	
-		System.out.print("extract patterns from peptides");
-		pf.computeNumScan(peptideFile);
-		patternSearch = new PatternSearch(this.st, this.mt, this.pf);
-		HashSet[] tagSet = pf.extractPatterns(peptideFile);
+	/**
+	 * builds a flat suffix tree for a protein database and saves it to an index file, see IndexFileHandler
+	 * @param proteinDatabaseFile
+	 * 			the protein database (fasta format)
+	 * @param indexFile
+	 * 			file name of the index
+	 * */
+	public void buildIndexFile(String proteinDatabaseFile, String indexFile) throws IOException{
+		if (!indexType.equals(SPARSE_INDEX) && !indexType.equals(UNIQUE_INDEX))
+			indexType = PARALLEL_INDEX;
+		buildIndex(proteinDatabaseFile);
+		
+		System.out.print("writing index file");
+		IndexFileHandler ih = new IndexFileHandler();
+		long fingerprint = ih.computeFingerprint(proteinDatabaseFile, mt.getScaleFactor(), getScaledMassTolerance());
+		ih.writeIndex(indexFile, flatTree, proteinDatabase, fingerprint);
+		computeRunningtime();
+	}
+	
+	/**
+	 * saves the index of a protein database like buildIndexFile(String, String), but builds it group by group
+	 * within a memory budget, see PartitionedIndexBuilder
+	 * @param proteinDatabaseFile
+	 * 			the protein database (fasta format)
+	 * @param indexFile
+	 * 			file name of the index
+	 * @param memoryBudget
+	 * 			memory in bytes for the groups of suffixes being built
+	 * */
+	public void buildIndexFile(String proteinDatabaseFile, String indexFile, long memoryBudget) throws IOException{
+		System.out.print("Loading database");
+		DatabaseFileHandler da = new DatabaseFileHandler();
+		proteinDatabase = da.loadDatabase(proteinDatabaseFile);
 		computeRunningtime();
 		
-		System.out.print("searching...");
-		search(tagSet, peptideTable, outputFile);
+		System.out.print("Extract peptides from sequence");
+		peptideTable = proteinDatabase.extractPeptideFromSeq2();
+		proteinDatabase.freeMem(peptideTable);
+		computeRunningtime();
+		
+		System.out.print("building index file");
+		IndexFileHandler ih = new IndexFileHandler();
+		long fingerprint = ih.computeFingerprint(proteinDatabaseFile, mt.getScaleFactor(), getScaledMassTolerance());
+		File tempDir = new File(indexFile).getAbsoluteFile().getParentFile();
+		new PartitionedIndexBuilder(this, memoryBudget, tempDir).build(proteinDatabase, indexFile, fingerprint);
+		computeRunningtime();
+	}
+	
+	/**
+	 * loads a flat suffix tree saved by buildIndexFile(), the index is rejected if it was not built
+	 * from the same protein database with the same parameters
+	 * @param proteinDatabaseFile
+	 * 			the protein database (fasta format) the index was built from
+	 * @param indexFile
+	 * 			file name of the index
+	 * */
+	private void loadIndex(String proteinDatabaseFile, String indexFile) throws IOException{
+		System.out.print("Loading index");
+		IndexFileHandler ih = new IndexFileHandler();
+		long fingerprint = ih.computeFingerprint(proteinDatabaseFile, mt.getScaleFactor(), getScaledMassTolerance());
+		flatTree = ih.loadIndex(indexFile, fingerprint);
+		proteinDatabase = ih.getProteinDatabase();
+		leafTable = flatTree.getLeafTable();
+		computeRunningtime();
+	}
+	
+	/**
+	 * loads the protein database, splits it into numShards shards of about the same size and builds the index
+	 * of each shard, the shards are built concurrently by numThreads threads
+	 * @param proteinDatabaseFile
+	 * 			the protein database (fasta format)
+	 * */
+	private void buildShards(String proteinDatabaseFile) throws IOException{
+		System.out.print("Loading database");
+		DatabaseFileHandler da = new DatabaseFileHandler();
+		proteinDatabase = da.loadDatabase(proteinDatabaseFile);
+		computeRunningtime();
+		
+		final int[] boundaries = proteinDatabase.getShardBoundaries(numShards);
+		System.out.print("constructing "+(boundaries.length-1)+" shards");
+		List<Callable<IndexShard>> tasks = new ArrayList<Callable<IndexShard>>();
+		for (int k=0; k<boundaries.length-1; k++){
+			final int shard = k;
+			tasks.add(new Callable<IndexShard>(){
+				public IndexShard call() throws IOException{
+					ProteinDatabase database = proteinDatabase.subDatabase(boundaries[shard], boundaries[shard+1]);
+					return buildShard(database, boundaries[shard]);
+				}
+			});
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			List<Future<IndexShard>> results = invokeAll(executor, tasks);
+			shards = new IndexShard[results.size()];
+			for (int k=0; k<shards.length; k++)
+				shards[k] = getResult(results.get(k));
+		} finally {
+			executor.shutdown();
+		}
+		computeRunningtime();
+	}
+	
+	/**
+	 * builds and preprocesses the index of one shard
+	 * @param database
+	 * 			the proteins of the shard
+	 * @param firstSeqNum
+	 * 			sequence number of the first protein of the shard in the whole database
+	 * */
+	public IndexShard buildShard(ProteinDatabase database, int firstSeqNum) throws IOException{
+		Vector<Vector<Integer>> peptideTable = database.extractPeptideFromSeq2();
+		FlatSuffixTree tree = new FlatSuffixTree(database.getSequence(), database);
+		if (reorderNodes)
+			tree.reorderNodes();
+		Preprocessing pp = new Preprocessing(tree, database, this, peptideTable);
+		pp.computeMassRangeForNodes(tree.getRoot(), numThreads);
+		tree.computeLeafIntervals();
+		database.freeMem(peptideTable);
+		return new IndexShard(tree, database, firstSeqNum, mt, pf);
+	}
+	
+	/**
+	 * loads the shards listed in a file, each line gives the protein database (fasta format) of a shard and
+	 * the index file built from it by build-index. The proteins of the shards are numbered in the order of the lines,
+	 * so a shard can be added by appending a line without rebuilding the other shards.
+	 * @param shardListFile
+	 * 			file name of the shard list
+	 * */
+	private void loadShards(String shardListFile) throws IOException{
+		System.out.print("Loading shards");
+		Vector<IndexShard> shardList = new Vector<IndexShard>();
+		int firstSeqNum = 0;
+		BufferedReader in = new BufferedReader(new FileReader(shardListFile));
+		String line = in.readLine();
+		while (line != null){
+			line = line.trim();
+			if (line.length() > 0){
+				String[] files = line.split("\\s+");
+				if (files.length < 2){
+					in.close();
+					throw new IOException(shardListFile+": expected a protein database and an index file in line \""+line+"\"");
+				}
+				IndexFileHandler ih = new IndexFileHandler();
+				long fingerprint = ih.computeFingerprint(files[0], mt.getScaleFactor(), getScaledMassTolerance());
+				FlatSuffixTree tree = ih.loadIndex(files[1], fingerprint);
+				shardList.add(new IndexShard(tree, ih.getProteinDatabase(), firstSeqNum, mt, pf));
+				firstSeqNum += ih.getProteinDatabase().size();
+			}
+			line = in.readLine();
+		}
+		in.close();
+		shards = shardList.toArray(new IndexShard[shardList.size()]);
 		computeRunningtime();
 	}
 	
+	/**
+	 * builds an incremental index of a protein database and applies the updates listed in a file, one per line:
+	 * "add <fasta file>" appends the proteins of a file, "remove <protein id>" removes a protein and
+	 * "compact" compacts the index, see IncrementalIndex
+	 * @param proteinDatabaseFile
+	 * 			the initial protein database (fasta format)
+	 * @param updateFile
+	 * 			file name of the update list, null for no updates
+	 * */
+	private void updateIndex(String proteinDatabaseFile, String updateFile) throws IOException{
+		System.out.print("constructing incremental index");
+		DatabaseFileHandler da = new DatabaseFileHandler();
+		IncrementalIndex index = new IncrementalIndex(this, da.loadDatabase(proteinDatabaseFile));
+		computeRunningtime();
+		
+		if (updateFile != null){
+			System.out.print("updating index");
+			BufferedReader in = new BufferedReader(new FileReader(updateFile));
+			String line = in.readLine();
+			while (line != null){
+				line = line.trim();
+				if (line.length() > 0){
+					String[] update = line.split("\\s+", 2);
+					if (update[0].equals("add") && update.length == 2)
+						index.addProteins(da.loadDatabase(update[1]));
+					else if (update[0].equals("remove") && update.length == 2)
+						index.removeProtein(update[1]);
+					else if (update[0].equals("compact"))
+						index.compact();
+					else {
+						in.close();
+						throw new IOException(updateFile+": unknown update \""+line+"\"");
+					}
+				}
+				line = in.readLine();
+			}
+			in.close();
+			computeRunningtime();
+		}
+		shards = index.getShards();
+	}
+	
+	/**
+	 * measures the search of a flat suffix tree with its nodes in construction order and after reorderNodes(),
+	 * the results are not written
+	 * @param proteinDatabaseFile
+	 * 			the protein database (fasta format)
+	 * @param peptideFile
+	 * 			the input data file
+	 * @param rounds
+	 * 			number of times the scans are searched with each order, the fastest round is reported
+	 * */
+	public void benchmarkNodeOrder(String proteinDatabaseFile, String peptideFile, int rounds) throws IOException{
+		indexType = FLAT_INDEX;
+		reorderNodes = false;
+		buildIndex(proteinDatabaseFile);
+		pf.computeNumScan(peptideFile);
+		HashSet<?>[] tagSet = pf.extractPatterns(peptideFile);
+		
+		long[] before = timeSearch(tagSet, rounds);
+		flatTree.reorderNodes();
+		long[] after = timeSearch(tagSet, rounds);
+		System.out.println("construction order: "+before[0]/1000000+" ms, "+before[1]+" results");
+		System.out.println("depth-first order:  "+after[0]/1000000+" ms, "+after[1]+" results");
+	}
+	
+	/**
+	 * searches every scan against the flat suffix tree several times
+	 * @return the time of the fastest round in nanoseconds and the number of results
+	 * */
+	private long[] timeSearch(HashSet<?>[] tagSet, int rounds){
+		indexSearch = new PatternSearch(this.flatTree, this.mt, this.pf);
+		IntList searchResult = new IntList();
+		long best = Long.MAX_VALUE, numResults = 0;
+		for (int r=0; r<rounds; r++){
+			numResults = 0;
+			long begin = System.nanoTime();
+			for (int i=0; i<=pf.getNumScan(); i++){
+				indexSearch.startScan();
+				Iterator<?> ite = tagSet[i].iterator();
+				while (ite.hasNext()){
+					IntList leafSet = indexSearch.searchLeafPositions((Pattern) ite.next(), i);
+					if (leafSet != null){
+						for (int j=0; j<leafSet.size(); j++)
+							searchResult.add(leafSet.get(j));
+					}
+				}
+				searchResult.sortAndRemoveDuplicates();
+				numResults += searchResult.size();
+				searchResult.clear();
+			}
+			best = Math.min(best, System.nanoTime() - begin);
+		}
+		return new long[]{best, numResults};
+	}
+	
 	/**
 	 * search peptides against the protein database
 	 * @param tagSet
@@ -121,25 +546,330 @@ public class DoSearch2 {
 	 * */
 	private void search(HashSet[] tagSet, Vector<Vector<Integer>> peptideTable, String outFile) throws IOException{
 		PrintWriter writer = new PrintWriter(outFile);
+		PatternTrie trie = new PatternTrie();
 		for (int i=0; i<=pf.getNumScan(); i++){
-			patternSearch.clearNodePool();
-			HashSet<LeafEdge> searchResult = new HashSet<LeafEdge>();
-			Iterator ite = tagSet[i].iterator();
+			HashSet<LeafEdge> searchResult = new LinkedHashSet<LeafEdge>();//in match order, LeafEdge hashes by identity
+			searchScan(patternSearch, trie, tagSet[i], i, searchResult);
+			if (searchResult.size() > 0){
+				writeResult2File(writer, searchResult, i);
+			}
+		}
+		writer.close();
+	}
+	
+	/**
+	 * search the tags of one scan against the SuffixTree
+	 * @param trie
+	 * 			used to merge the tags if patternTrie is set
+	 * @param searchResult
+	 * 			the matched leaves are added to it
+	 * */
+	private void searchScan(PatternSearch search, PatternTrie trie, HashSet<?> tags, int scanNum, HashSet<LeafEdge> searchResult){
+		search.startScan();
+		if (patternTrie){
+			trie.clear();
+			trie.addAll(tags);
+			ArrayList<LeafEdge> leafSet = search.searchPattern(trie, scanNum);
+			for (int j=0; j<leafSet.size(); j++)
+				add2ResultSet(peptideTable, searchResult, leafSet.get(j), scanNum);
+		}
+		else {
+			Iterator<?> ite = tags.iterator();
 			while (ite.hasNext()){
 				Pattern pattern = (Pattern) ite.next();
-				ArrayList<LeafEdge> leafSet = patternSearch.searchPattern(pattern, i);
+				ArrayList<LeafEdge> leafSet = search.searchPattern(pattern, scanNum);
 				if (leafSet != null){
 					for (int j=0; j<leafSet.size(); j++)
-						add2ResultSet(peptideTable, searchResult, leafSet.get(j), i);
+						add2ResultSet(peptideTable, searchResult, leafSet.get(j), scanNum);
 				}
 			}
-			if (searchResult.size() > 0){
+		}
+	}
+	
+	/**
+	 * search peptides against an index whose leaves are kept in a LeafPeptideTable (flat suffix tree, suffix array, FM-index)
+	 * @param tagSet
+	 * 			extracted tags (patterns) from the peptide file
+	 * @param outFile
+	 * 			output file name
+	 * */
+	private void searchIndex(HashSet<?>[] tagSet, String outFile) throws IOException{
+		PrintWriter writer = new PrintWriter(outFile);
+		IntList searchResult = new IntList();
+		PatternTrie trie = new PatternTrie();
+		for (int i=0; i<=pf.getNumScan(); i++){
+			searchScan(indexSearch, trie, tagSet[i], i, searchResult);
+			if (searchResult.size() > 0)
 				writeResult2File(writer, searchResult, i);
-			}
 		}
 		writer.close();
 	}
 	
+	/**
+	 * search the tags of one scan against an index whose leaves are kept in a LeafPeptideTable
+	 * @param trie
+	 * 			used to merge the tags if patternTrie is set
+	 * @param searchResult
+	 * 			the matched leaves are added to it, sorted and without duplicates
+	 * */
+	private void searchScan(IndexSearch search, PatternTrie trie, HashSet<?> tags, int scanNum, IntList searchResult){
+		search.startScan();
+		if (patternTrie){
+			trie.clear();
+			trie.addAll(tags);
+			IntList leafSet = search.searchLeafPositions(trie, scanNum);
+			for (int j=0; j<leafSet.size(); j++)
+				searchResult.add(leafSet.get(j));
+		}
+		else {
+			Iterator<?> ite = tags.iterator();
+			while (ite.hasNext()){
+				Pattern pattern = (Pattern) ite.next();
+				IntList leafSet = search.searchLeafPositions(pattern, scanNum);
+				if (leafSet != null){
+					for (int j=0; j<leafSet.size(); j++)
+						searchResult.add(leafSet.get(j));
+				}
+			}
+		}
+		searchResult.sortAndRemoveDuplicates();
+	}
+	
+	/**
+	 * the result of searching one scan in searchParallel(), the matched edges of the suffix tree or the leaves of
+	 * the index
+	 * */
+	private static class ScanResult {
+		private int scanNum;
+		private HashSet<LeafEdge> edges;
+		private IntList leaves;
+
+		ScanResult(int scanNum, HashSet<LeafEdge> edges, IntList leaves){
+			this.scanNum = scanNum;
+			this.edges = edges;
+			this.leaves = leaves;
+		}
+	}
+	
+	/**
+	 * search peptides against a single index with searchThreads threads. The index is only read and shared, every
+	 * thread uses its own search (matching lists, visited nodes) and PatternTrie. The scans are ordered by cost in
+	 * windows of SEARCH_WINDOW scans and handed to the threads one at a time, the most expensive first (see
+	 * estimateScanCost()), so that a few slow scans do not keep one thread busy once the others are done.
+	 * The results are kept until every scan before them is written and the results of a scan are in match order
+	 * (see searchScan()), so the output is the same as the one of a single thread. The window after the one being
+	 * written is searched meanwhile, a window is submitted once the one two before it is written, so at most two
+	 * windows of results are held.
+	 * @param tagSet
+	 * 			extracted tags (patterns) from the peptide file
+	 * @param outFile
+	 * 			output file name
+	 * @param frontierCache
+	 * 			cache of the flat suffix tree shared by the threads, null for no cache
+	 * */
+	private void searchParallel(final HashSet<?>[] tagSet, String outFile, FrontierCache frontierCache) throws IOException{
+		final int numScans = pf.getNumScan()+1;
+		int threads = Math.max(1, Math.min(searchThreads, numScans));
+		final IndexSearch[] searches = new IndexSearch[threads];
+		final PatternSearch[] treeSearches = new PatternSearch[threads];
+		final PatternTrie[] tries = new PatternTrie[threads];
+		final ConcurrentLinkedQueue<Integer> idle = new ConcurrentLinkedQueue<Integer>();//searches not in use
+		for (int t=0; t<threads; t++){
+			if (st != null)
+				treeSearches[t] = new PatternSearch(this.st, this.mt, this.pf);
+			else
+				searches[t] = newIndexSearch(frontierCache);
+			tries[t] = new PatternTrie();
+			idle.add(t);
+		}
+		ScanResult[] results = new ScanResult[Math.min(numScans, 2*SEARCH_WINDOW)];//by scan number modulo its length
+		
+		PrintWriter writer = new PrintWriter(outFile);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		CompletionService<ScanResult> completion = new ExecutorCompletionService<ScanResult>(executor);
+		try {
+			int submitted = 0;//the scans before it are submitted
+			for (int w=0; w<2 && submitted<numScans; w++)
+				submitted = submitWindow(completion, tagSet, submitted, searches, treeSearches, tries, idle);
+			//write the scans in order as soon as they and every scan before them are done
+			int next = 0;
+			for (int done=0; done<numScans; done++){
+				ScanResult result = getResult(take(completion));
+				results[result.scanNum % results.length] = result;
+				for (; next<numScans && results[next % results.length] != null; next++){
+					ScanResult ready = results[next % results.length];
+					if (ready.edges != null)
+						writeResult2File(writer, ready.edges, next);
+					else
+						writeResult2File(writer, ready.leaves, next);
+					results[next % results.length] = null;
+					if ((next+1) % SEARCH_WINDOW == 0 && submitted < numScans)
+						submitted = submitWindow(completion, tagSet, submitted, searches, treeSearches, tries, idle);
+				}
+			}
+		} finally {
+			executor.shutdownNow();//the scans not searched yet if a search failed
+			writer.close();
+		}
+	}
+	
+	/**
+	 * submits the searches of the window of scans starting at a given one, the most expensive scans first
+	 * @param first
+	 * 			the first scan of the window, a multiple of SEARCH_WINDOW
+	 * @return the scan following the window
+	 * */
+	private int submitWindow(CompletionService<ScanResult> completion, final HashSet<?>[] tagSet, int first,
+			final IndexSearch[] searches, final PatternSearch[] treeSearches, final PatternTrie[] tries,
+			final ConcurrentLinkedQueue<Integer> idle){
+		int end = Math.min(pf.getNumScan()+1, first+SEARCH_WINDOW);
+		for (final int scanNum : orderByCost(tagSet, first, end)){
+			completion.submit(new Callable<ScanResult>(){
+				public ScanResult call(){
+					int k = idle.poll();//there are as many searches as threads
+					try {
+						if (treeSearches[k] != null){
+							HashSet<LeafEdge> searchResult = new LinkedHashSet<LeafEdge>();//in match order, LeafEdge hashes by identity
+							searchScan(treeSearches[k], tries[k], tagSet[scanNum], scanNum, searchResult);
+							return new ScanResult(scanNum, searchResult, null);
+						}
+						IntList searchResult = new IntList();
+						searchScan(searches[k], tries[k], tagSet[scanNum], scanNum, searchResult);
+						return new ScanResult(scanNum, null, searchResult);
+					} finally {
+						idle.add(k);
+					}
+				}
+			});
+		}
+		return end;
+	}
+	
+	/**
+	 * sorts a range of scans by decreasing estimated search cost
+	 * @return the scan numbers from first (included) to end (excluded), the most expensive first
+	 * */
+	private int[] orderByCost(HashSet<?>[] tagSet, int first, int end){
+		final double[] cost = new double[end-first];
+		Integer[] order = new Integer[end-first];
+		for (int i=first; i<end; i++){
+			cost[i-first] = estimateScanCost(tagSet[i]);
+			order[i-first] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>(){
+			public int compare(Integer a, Integer b){
+				return Double.compare(cost[b-first], cost[a-first]);
+			}
+		});
+		int[] scans = new int[order.length];
+		for (int i=0; i<order.length; i++)
+			scans[i] = order[i];
+		return scans;
+	}
+	
+	/**
+	 * estimates the cost of searching the tags of a scan. The masses of a tag are matched one after another, each
+	 * extending the matched positions with the strings of the mass table within the search tolerance, so the number
+	 * of positions after k masses is bounded by the product of the numbers of strings of the first k masses; the cost
+	 * of a tag is the sum of these bounds. Large masses (gaps) have many strings and make a tag expensive.
+	 * */
+	private double estimateScanCost(HashSet<?> tags){
+		int tolerance = (int)Math.round(PatternSearch.errorTolerance*mt.getScaleFactor());
+		double cost = 0;
+		for (Object tag : tags){
+			Pattern pattern = (Pattern) tag;
+			double positions = 1;
+			for (int i=0; i<pattern.length(); i++){
+				int numStrings = 0;
+				for (int d=-tolerance; d<=tolerance; d++){
+					int mass = pattern.get(i)+d;
+					if (mass > 0 && mass <= mt.getMaxSize())
+						numStrings += mt.getNumMassString(mass);
+				}
+				positions *= Math.max(1, numStrings);
+				cost += positions;
+			}
+		}
+		return cost;
+	}
+	
+	/**
+	 * search peptides against every shard, the shards are searched concurrently for each scan and their results
+	 * are written in the order of the shards
+	 * @param tagSet
+	 * 			extracted tags (patterns) from the peptide file
+	 * @param outFile
+	 * 			output file name
+	 * */
+	private void searchShards(final HashSet<?>[] tagSet, String outFile) throws IOException{
+		PrintWriter writer = new PrintWriter(outFile);
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(numThreads, shards.length));
+		List<Callable<IntList>> tasks = new ArrayList<Callable<IntList>>(shards.length);
+		try {
+			for (int i=0; i<=pf.getNumScan(); i++){
+				final int scanNum = i;
+				tasks.clear();
+				for (final IndexShard shard : shards){
+					tasks.add(new Callable<IntList>(){
+						public IntList call(){
+							return shard.searchScan(tagSet[scanNum], scanNum);
+						}
+					});
+				}
+				List<Future<IntList>> results = invokeAll(executor, tasks);
+				for (int k=0; k<shards.length; k++){
+					IntList searchResult = getResult(results.get(k));
+					writeResult2File(writer, searchResult, i, shards[k].getLeafTable(), shards[k].getProteinDatabase(), shards[k].getFirstSeqNum());
+				}
+			}
+		} finally {
+			executor.shutdown();
+			writer.close();
+		}
+	}
+	
+	private static <T> List<Future<T>> invokeAll(ExecutorService executor, List<Callable<T>> tasks) throws IOException{
+		try {
+			return executor.invokeAll(tasks);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+	}
+	
+	/**
+	 * waits for the next task of a CompletionService to finish
+	 * */
+	private static <T> Future<T> take(CompletionService<T> completion) throws IOException{
+		try {
+			return completion.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+	}
+	
+	/**
+	 * gets the result of a finished task, rethrowing what the task has thrown
+	 * */
+	private static <T> T getResult(Future<T> future) throws IOException{
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new IOException(cause);
+		}
+	}
+	
 	/**
 	 * adds a search result to the result set
 	 * @param peptideTable 
@@ -181,6 +911,59 @@ public class DoSearch2 {
 		searchResult = null;
 	}
 	
+	/**
+	 * writes the search results given as leaves of the leaf table to file, in the same format as writeResult2File(PrintWriter, HashSet, int)
+	 * @param writer
+	 * 			file pointer referring to the disk file for holding the output
+	 * @param searchResult
+	 * 			the matched leaves, cleared after writing
+	 * */
+	public void writeResult2File(PrintWriter writer, IntList searchResult, int scanNum){
+		writeResult2File(writer, searchResult, scanNum, leafTable, proteinDatabase, 0);
+	}
+	
+	/**
+	 * writes the search results of one shard given as leaves of its leaf table to file
+	 * @param writer
+	 * 			file pointer referring to the disk file for holding the output
+	 * @param searchResult
+	 * 			the matched leaves, or the text positions of the matched occurrences if the leaf table has unique
+	 * 			peptides (see UniquePeptideSearch), cleared after writing
+	 * @param leafTable
+	 * 			leaf payloads of the shard
+	 * @param database
+	 * 			the proteins of the shard
+	 * @param firstSeqNum
+	 * 			sequence number of the first protein of the shard, added to the sequence numbers in the output
+	 * */
+	public void writeResult2File(PrintWriter writer, IntList searchResult, int scanNum, LeafPeptideTable leafTable, ProteinDatabase database, int firstSeqNum){
+		for (int i=0; i<searchResult.size(); i++){
+			if (leafTable.hasUniquePeptides()){
+				//the results are the text positions of the matched occurrences, see UniquePeptideSearch
+				PeptideDictionary dictionary = leafTable.getPeptideDictionary();
+				int pos = searchResult.get(i);
+				int seqNum = leafTable.getSeqNumAt(pos);
+				int leafIndex = pos - leafTable.getSeqStart(seqNum);
+				String pepString = dictionary.getPeptide(dictionary.getPeptideId(seqNum, leafIndex));
+				writeResult(writer, scanNum, pepString, database, seqNum, leafIndex, firstSeqNum);
+			}
+			else {
+				int leaf = searchResult.get(i);
+				writeResult(writer, scanNum, leafTable.getPepString(leaf), database, leafTable.getSeqNum(leaf), leafTable.getLeafIndex(leaf), firstSeqNum);
+			}
+		}
+		
+		searchResult.clear();
+	}
+	
+	private void writeResult(PrintWriter writer, int scanNum, String pepString, ProteinDatabase database, int seqNum, int leafIndex, int firstSeqNum){
+		writer.print((scanNum-1)+"\t");//scanNum starts from 1, -1 to make it start from 0 in the output file
+		writer.print(pepString+"\t");
+		writer.print(database.getProteinID(seqNum)+"\t");
+		writer.print("<"+(firstSeqNum+seqNum)+","+leafIndex+">");
+		writer.println();
+	}
+	
 	public void setParameters(int minPatternLength, int fixedPatternLength, double searchError, double resultError, int minConfidence){
 		Peptide.patternLengthCutoff = minPatternLength;
 		Peptide.PATTERN_LENGTH = fixedPatternLength;
@@ -207,6 +990,52 @@ public class DoSearch2 {
 	 * args[5]: search result error tolerance
 	 * args[6]: confidence cutoff
 	 * args[7]: output file name
+	 * args[8]: (optional) index type, "tree" (default), "flat", "parallel" (flat suffix tree built by
+	 * 			numThreads threads), "sa", "fm", "offheap" (flat suffix tree stored
+	 * 			outside of the Java heap), "mapped" (flat suffix tree in a memory mapped index file),
+	 * 			"sparse" (flat suffix tree of the suffixes starting at peptide boundaries, plus sparseOffsets
+	 * 			positions after each boundary; only tags starting there are found, use another index type for
+	 * 			tags starting anywhere in a peptide),
+	 * 			"unique" (like "sparse", but only over the first occurrence of each distinct peptide; the matches
+	 * 			are reported at every occurrence, the ones that may run past the residues following all the
+	 * 			occurrences alike are checked against the text of each occurrence),
+	 * 			"sharded" (flat suffix trees over numShards parts of the database, searched concurrently),
+	 * 			"mapped-shards" (shards saved by build-index, listed in a file),
+	 * 			"incremental" (flat suffix tree updated by a list of added and removed proteins),
+	 * 			or "lazy" (suffix tree whose nodes are only built when a search first reaches them)
+	 * args[9]: index file name for the index type "mapped", number of shards for "sharded", number of offsets
+	 * 			after the peptide boundaries for "sparse" and "unique", or the shard list
+	 * 			for "mapped-shards": one line per shard giving its protein database and its index file
+	 * 			(args[0] is not used by "mapped-shards"), or the update list for "incremental"
+	 * args[10]: (optional) "mass" to match the masses of the tags by descending the suffix tree with the masses
+	 * 			of the residues instead of walking every string of the mass table (all the index types but "sa",
+	 * 			"fm" and "lazy"); args[9] must then be given, it is ignored by the index types not using it
+	 * args[11]: (optional) number of threads searching the scans, 1 by default (not used by "sharded",
+	 * 			"mapped-shards" and "lazy", whose scans are searched one after another); args[9] and args[10] must then be given
+	 *
+	 * to split a protein database into shard files, whose indexes are then built one by one:
+	 * args[0]: "split-database"
+	 * args[1]: protein database
+	 * args[2]: number of shards
+	 * args[3]: prefix of the shard files
+	 *
+	 * to save the index of a protein database to a file for the index type "mapped":
+	 * args[0]: "build-index"
+	 * args[1]: protein database
+	 * args[2]: index file name
+	 * args[3]: search result error tolerance
+	 * args[4]: (optional) build a sparse index with this number of offsets after the peptide boundaries
+	 * args[5]: (optional) "unique" to build the sparse index over the distinct peptides only
+	 *
+	 * to save the index of a protein database whose suffix tree does not fit in memory, built group by group:
+	 * args[0]: "build-index-bounded"
+	 * args[1..3]: as for "build-index"
+	 * args[4]: memory budget in MB for the groups of suffixes being built
+	 *
+	 * to compare the search time of a flat suffix tree before and after reordering its nodes:
+	 * args[0]: "benchmark-layout"
+	 * args[1..7]: as args[0..6] of a search
+	 * args[8]: (optional) number of rounds, 5 by default
 	 */
 	
 	public static void main(String[] args) throws IOException{
@@ -214,6 +1043,38 @@ public class DoSearch2 {
 		long start = startTime;
 		
 		DoSearch2 doSearch = new DoSearch2();
+		if (args[0].equals("split-database")){
+			DatabaseFileHandler da = new DatabaseFileHandler();
+			Vector<String> shardFiles = da.splitDatabase(args[1], Integer.parseInt(args[2]), args[3]);
+			for (int k=0; k<shardFiles.size(); k++)
+				System.out.println(shardFiles.get(k));
+			return;
+		}
+		if (args[0].equals("benchmark-layout")){
+			PeptideFileHandler.gapMode = true;
+			doSearch.setParameters(Integer.parseInt(args[3]), Integer.parseInt(args[4]), Double.parseDouble(args[5]),
+					Double.parseDouble(args[6]), Integer.parseInt(args[7]));
+			doSearch.benchmarkNodeOrder(args[1], args[2], args.length > 8 ? Integer.parseInt(args[8]) : 5);
+			return;
+		}
+		if (args[0].equals("build-index")){
+			DoSearch2.massTolerance = Double.parseDouble(args[3]);
+			doSearch.compScaledMassTolerance(massTolerance);
+			if (args.length > 4){
+				indexType = args.length > 5 && args[5].equals(UNIQUE_INDEX) ? UNIQUE_INDEX : SPARSE_INDEX;
+				sparseOffsets = Integer.parseInt(args[4]);
+			}
+			doSearch.buildIndexFile(args[1], args[2]);
+			System.out.println("Total Running time:"+(System.currentTimeMillis() - start)/1000+" seconds");
+			return;
+		}
+		if (args[0].equals("build-index-bounded")){
+			DoSearch2.massTolerance = Double.parseDouble(args[3]);
+			doSearch.compScaledMassTolerance(massTolerance);
+			doSearch.buildIndexFile(args[1], args[2], Long.parseLong(args[4])<<20);
+			System.out.println("Total Running time:"+(System.currentTimeMillis() - start)/1000+" seconds");
+			return;
+		}
 		//set the parameters
 		PeptideFileHandler.gapMode = true;
 		int minPatternLength = Integer.parseInt(args[2]);
@@ -222,6 +1083,20 @@ public class DoSearch2 {
 		double resultError = Double.parseDouble(args[5]);
 		int minConfidence = Integer.parseInt(args[6]);
 		doSearch.setParameters(minPatternLength, fixedPatternLength, searchError, resultError, minConfidence);
+		if (args.length > 8)
+			indexType = args[8];
+		if (args.length > 9){
+			if (indexType.equals(SHARDED_INDEX))
+				numShards = Integer.parseInt(args[9]);
+			else if (indexType.equals(SPARSE_INDEX) || indexType.equals(UNIQUE_INDEX))
+				sparseOffsets = Integer.parseInt(args[9]);
+			else
+				indexFile = args[9];
+		}
+		if (args.length > 10)
+			PatternSearch.massTraversal = args[10].equals("mass");
+		if (args.length > 11)
+			searchThreads = Integer.parseInt(args[11]);
 		System.out.println("List of search parameters:");
 		System.out.println("minPatternLength:"+minPatternLength);
 		System.out.println("fixedPatternLength:"+fixedPatternLength);
@@ -229,6 +1104,9 @@ public class DoSearch2 {
 		System.out.println("resultError:"+resultError);
 		System.out.println("confidenceCutOff:"+minConfidence);
 		System.out.println("gapped-tag:"+PeptideFileHandler.gapMode);
+		System.out.println("index:"+indexType);
+		System.out.println("massTraversal:"+PatternSearch.massTraversal);
+		System.out.println("searchThreads:"+searchThreads);
 		System.out.println();
 		
 		doSearch.search(args[0], args[1], args[7]);
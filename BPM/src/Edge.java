@@ -33,8 +33,8 @@ public class Edge {
      * The newly created edge descends from the original parent, and now has the existing edge as a child.
      * <p/>
      * Since the existing edge is getting a new parent and starting character,
-     * its hash table entry will no longer be valid.  That's why it gets removed at the start of the function.
-     * After the parent and start char have been recalculated, it is re-inserted.
+     * its entry in the original parent is overwritten by the new edge, which starts with the same character.
+     * After the parent and start char have been recalculated, it is inserted into the new node.
      * <p/>
      * The number of characters stolen from the original node and given to the new node is equal to the number
      * of characters in the suffix argument, which is last - first + 1;
@@ -43,10 +43,9 @@ public class Edge {
      * @return
      */
     public Node splitEdge(Suffix suffix){
-    	remove();
     	Node breakNode = new Node(suffix.getOriginNode(), null);
     	Edge newEdge = new Edge(beginIndex, beginIndex + suffix.getSpan(), suffix.getOriginNode(), breakNode);
-        newEdge.insert();
+        newEdge.replace();//takes the place of this edge, which starts with the same character
         breakNode.setSuffixNode(suffix.getOriginNode());
         beginIndex += suffix.getSpan() + 1;
         startNode = breakNode;
@@ -62,6 +61,13 @@ public class Edge {
         startNode.addEdge(beginIndex, this);
     }
 
+    /**
+     * replace the edge starting with the same character in the set of edges associated with the startNode
+     * */
+    public void replace() {
+        startNode.replaceEdge(beginIndex, this);
+    }
+
     /**
      * remove the edge from the set of edges associated with the startNode
      * */
@@ -148,8 +154,7 @@ public class Edge {
      * @return the element
      * */
     public char getItemAt(int j){
-    	String text = startNode.getSuffixTree().getText();
-    	return text.charAt(j);
+    	return startNode.getSuffixTree().charAt(j);
     }
     
     /**
@@ -158,8 +163,7 @@ public class Edge {
      * @return the element
      * */
     public char getItemAt2(int j){
-    	String text = startNode.getSuffixTree().getText();
-    	return text.charAt(beginIndex + j);
+    	return startNode.getSuffixTree().charAt(beginIndex + j);
     }
     
     /*@Override
@@ -168,6 +172,9 @@ public class Edge {
     }*/
     
     public String toString(){
-    	return startNode.getSuffixTree().getText().substring(beginIndex, endIndex+1);
+    	StringBuilder sb = new StringBuilder();
+    	for (int j=beginIndex; j<=endIndex; j++)
+    		sb.append(startNode.getSuffixTree().charAt(j));
+    	return sb.toString();
     }
 }
\ No newline at end of file
@@ -0,0 +1,127 @@
+import java.util.Iterator;
+
+
+/**
+ * Searches patterns against an FM-index by backward search, answering the same queries as PatternSearch.
+ * The masses of a pattern are matched from the last to the first one, and the characters of each mass string
+ * from right to left; a matched position is the range of rows [sp, ep) of the suffixes starting with the
+ * matched suffix of the pattern, the lists of matched positions store these two numbers per entry.
+ * */
+public class FMIndexSearch implements IndexSearch {
+	private FMIndex index;
+	private LeafPeptideTable leafTable;
+	private MassTable massTable;
+	private PeptideFileHandler pf;
+	private IntList list1;
+	private IntList list2;
+	private int scaledErrorTolerance;
+
+	/**
+	 * constructor
+	 * @param index FM-index
+	 * @param leafTable peptide information of each suffix
+	 * @param mt mass table
+	 * */
+	public FMIndexSearch(FMIndex index, LeafPeptideTable leafTable, MassTable mt, PeptideFileHandler pf){
+		this.index = index;
+		this.leafTable = leafTable;
+		massTable = mt;
+		this.pf = pf;
+		list1 = new IntList();
+		list2 = new IntList();
+		scaledErrorTolerance = (int)Math.round(PatternSearch.errorTolerance*massTable.getScaleFactor());
+	}
+
+	public IntList searchLeafPositions(Pattern pattern, int scanNum){
+		if (pattern.length() <= 0)
+			return null;
+		list1.clear();
+		list1.add(0);
+		list1.add(index.length());
+		for (int i=pattern.length()-1; i>=0; i--){
+			searchPattern(pattern.get(i));
+			//no match found
+			if (list2.size() == 0)
+				return null;
+			//swap list1 and list2
+			IntList tmpList = list1;
+			list1 = list2;
+			list2 = tmpList;
+			list2.clear();
+		}
+
+		IntList leafSet = new IntList();
+		int refMass = pf.getMassValue(scanNum);
+		for (int k=0; k<list1.size(); k+=2){
+			int ep = list1.get(k+1);
+			for (int i=list1.get(k); i<ep; i++){
+				int pos = index.locate(i);
+				if (leafTable.inErrorTolerance(pos, refMass))
+					leafSet.add(pos);
+			}
+		}
+		list1.clear();
+		return leafSet;
+	}
+
+	/**
+	 * the backward search matches the last mass of a pattern first while the patterns of a trie share their
+	 * first masses, so the patterns are searched one by one
+	 * */
+	public IntList searchLeafPositions(PatternTrie trie, int scanNum){
+		IntList leafSet = new IntList();
+		for (Pattern pattern : trie.getPatterns()){
+			IntList leaves = searchLeafPositions(pattern, scanNum);
+			if (leaves != null){
+				for (int i=0; i<leaves.size(); i++)
+					leafSet.add(leaves.get(i));
+			}
+		}
+		return leafSet;
+	}
+
+	/**
+	 * prepends the strings of a given mass to every matched position in list1, the results are stored in list2
+	 * @param mass
+	 * 			a given integer value
+	 * */
+	public void searchPattern(int mass){
+		for (int i=-scaledErrorTolerance; i<=scaledErrorTolerance; i++){
+			if ((mass+i)<=0 || (mass+i)>massTable.getMaxSize())
+				continue;
+			Iterator<?> ite = massTable.getMassString(mass+i);
+			while (ite.hasNext()){
+				String str = (String) ite.next();
+				for (int k=0; k<list1.size(); k+=2)
+					searchPattern(str, list1.get(k), list1.get(k+1));
+			}
+		}
+	}
+
+	/**
+	 * backward search of a particular string from a matched position, the new position is added to list2 if matched
+	 * @param str
+	 * 			the string to be prepended
+	 * @param sp
+	 * 			first row of the matched position
+	 * @param ep
+	 * 			end of the rows (exclusive)
+	 * */
+	private void searchPattern(String str, int sp, int ep){
+		for (int i=str.length()-1; i>=0; i--){
+			int code = SuffixArray.getCharacterCode(str.charAt(i));
+			sp = index.backwardStep(code, sp);
+			ep = index.backwardStep(code, ep);
+			if (sp >= ep)
+				return;
+		}
+		list2.add(sp);
+		list2.add(ep);
+	}
+
+	/**
+	 * nothing to reset, the matched positions do not outlive a pattern
+	 * */
+	public void startScan(){
+	}
+}
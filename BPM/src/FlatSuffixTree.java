@@ -0,0 +1,603 @@
+/**
+ * A generalized suffix tree stored in parallel primitive arrays instead of Node/Edge/LeafEdge objects.
+ * It is built with the same Ukkonen construction as SuffixTree.
+ *
+ * Internal nodes are addressed by an id (the root is 0). Each node except the root owns the edge
+ * leading into it, so edgeBegin[v] and depth[v] (number of characters from the root to v) describe that edge.
+ * Leaf k is referred to as ~k (always negative), so a child reference is either a node id (>= 0) or a leaf (< 0).
+ * Leaf k is the suffix starting at text position k, except in a sparse tree which only keeps some of the suffixes;
+ * there the leaves are numbered in the order of their positions, see LeafPeptideTable.getPosition().
+ * The edge into a leaf starting at position p begins at p + depth[parent] and ends at the end of the text.
+ * Children of a node are kept in a singly linked list: firstChild[v] -> nextSibling[..] -> ... -> NIL.
+ *
+ * Leaf payloads (peptide mass and peptide range) are kept in a LeafPeptideTable indexed by leaf.
+ * Once the masses are known, computeLeafIntervals() lists the leaves in depth-first order with their masses,
+ * the leaves of the subtree of node v are then the range [leafBegin[v], leafEnd[v]) of that list.
+ * A wavelet matrix over the masses of that list reports the leaves of a large subtree whose mass is within
+ * a window without scanning the whole range.
+ *
+ * The text and the arrays are accessed through ByteArray/IntArray, so a built tree can be moved off-heap
+ * by moveOffHeap(), or restored directly on top of a memory mapped index file.
+ * */
+public class FlatSuffixTree {
+	public static final int ROOT = 0;
+	public static final int NIL = Integer.MIN_VALUE;
+	//subtrees with more leaves are collected by the wavelet matrix instead of a scan, see collectLeaves()
+	public static int maxScannedLeaves = 256;
+
+	private ByteArray text;
+	private int textLength;
+	private LeafPeptideTable leafTable;
+	private IntArray leafPosition;//positions of the leaves of a sparse tree, null if every position is a leaf
+
+	//internal nodes, indexed by node id
+	private int nodeCount = 0;
+	private IntArray edgeBegin;
+	private IntArray depth;
+	private IntArray suffixLink;
+	private IntArray firstChild;
+	private IntArray nextSibling;
+	private IntArray minPeptideMass;
+	private IntArray maxPeptideMass;
+
+	//leaves, indexed by leaf number: the start position of the suffix in the text, or for a sparse tree
+	//the rank of the suffix among the indexed positions (see leafPosition)
+	private IntArray leafNextSibling;
+
+	//leaf intervals, null until computeLeafIntervals() is called
+	private IntArray leafBegin;//indexed by node id
+	private IntArray leafEnd;
+	private IntArray dfsLeaf;//the leaves in depth-first order
+	private IntArray dfsLeafMass;//peptide masses of the leaves in depth-first order
+	private WaveletMatrix massIndex;//over dfsLeafMass, the payloads are the leaves
+
+	//active point used during construction
+	private int activeNode;
+	private int activeBegin;
+	private int activeEnd;
+	private int leafCount = 0;
+
+	/**
+	 * constructor, builds the tree for the combined sequence of a protein database
+	 * @param text
+	 * 			the combined sequence, see ProteinDatabase.getSequence()
+	 * @param database
+	 * 			the protein database
+	 * */
+	public FlatSuffixTree(String text, ProteinDatabase database){
+		this.text = ByteArray.fromString(text);
+		textLength = text.length();
+
+		int capacity = textLength/2 + 16;
+		edgeBegin = IntArray.allocate(capacity);
+		depth = IntArray.allocate(capacity);
+		suffixLink = IntArray.allocate(capacity);
+		firstChild = IntArray.allocate(capacity);
+		nextSibling = IntArray.allocate(capacity);
+		leafNextSibling = IntArray.allocate(textLength);
+		newNode(0, 0);//root
+
+		activeNode = ROOT;
+		activeBegin = 0;
+		activeEnd = -1;
+		for (int i=0; i<textLength; i++)
+			addPrefix(i);
+
+		trimToSize();
+		leafTable = new LeafPeptideTable(database);
+	}
+
+	/**
+	 * constructor, creates a tree from its arrays, used by IndexFileHandler and ParallelSuffixTreeBuilder
+	 * @param text
+	 * 			the combined sequence
+	 * @param arrays
+	 * 			the arrays of the tree, in the order given by getArrays()
+	 * @param leafTable
+	 * 			payloads of the leaves
+	 * */
+	FlatSuffixTree(ByteArray text, IntArray[] arrays, LeafPeptideTable leafTable){
+		this.text = text;
+		textLength = text.length();
+		edgeBegin = arrays[0];
+		depth = arrays[1];
+		suffixLink = arrays[2];
+		firstChild = arrays[3];
+		nextSibling = arrays[4];
+		minPeptideMass = arrays[5];
+		maxPeptideMass = arrays[6];
+		leafNextSibling = arrays[7];
+		nodeCount = edgeBegin.length();
+		this.leafTable = leafTable;
+		leafPosition = leafTable.getLeafPositions();
+	}
+
+	/**
+	 * gets the arrays of the tree, used to save the tree to disk
+	 * @return the arrays indexed by node id (edgeBegin, depth, suffixLink, firstChild, nextSibling,
+	 * 			minPeptideMass, maxPeptideMass), followed by leafNextSibling indexed by leaf position
+	 * */
+	IntArray[] getArrays(){
+		return new IntArray[]{edgeBegin, depth, suffixLink, firstChild, nextSibling,
+				minPeptideMass, maxPeptideMass, leafNextSibling};
+	}
+
+	/**
+	 * numbers the leaves in depth-first order, so that the leaves of each subtree form an interval, and
+	 * copies their peptide masses in that order. Must be called after the masses of the leaves have been computed
+	 * (see Preprocessing).
+	 * */
+	public void computeLeafIntervals(){
+		leafBegin = IntArray.allocate(nodeCount);
+		leafEnd = IntArray.allocate(nodeCount);
+		dfsLeaf = IntArray.allocate(getNumLeaves());
+		dfsLeafMass = IntArray.allocate(getNumLeaves());
+		int next = 0;
+		//a node is pushed as node when entered and as ~node when its subtree is done
+		IntList stack = new IntList();
+		stack.add(ROOT);
+		while (!stack.isEmpty()){
+			int ref = stack.removeLast();
+			if (ref < 0){
+				leafEnd.set(~ref, next);
+				continue;
+			}
+			leafBegin.set(ref, next);
+			stack.add(~ref);
+			for (int child=firstChild.get(ref); child!=NIL; child=getNextSibling(child)){
+				if (child < 0){
+					dfsLeaf.set(next, ~child);
+					dfsLeafMass.set(next, leafTable.getPeptideMass(~child));
+					next++;
+				}
+				else
+					stack.add(child);
+			}
+		}
+		massIndex = new WaveletMatrix(dfsLeafMass, dfsLeaf);
+	}
+
+	/**
+	 * gets the leaf interval arrays, used to save them to disk
+	 * @return leafBegin and leafEnd indexed by node id, dfsLeaf and dfsLeafMass indexed by the depth-first
+	 * 			number of the leaves, null if the intervals have not been computed
+	 * */
+	IntArray[] getLeafIntervalArrays(){
+		if (leafBegin == null)
+			return null;
+		return new IntArray[]{leafBegin, leafEnd, dfsLeaf, dfsLeafMass};
+	}
+
+	/**
+	 * sets the leaf interval arrays, used when loading them from disk
+	 * @param arrays
+	 * 			the arrays, in the order given by getLeafIntervalArrays()
+	 * @param massIndex
+	 * 			the wavelet matrix over dfsLeafMass
+	 * */
+	void setLeafIntervalArrays(IntArray[] arrays, WaveletMatrix massIndex){
+		leafBegin = arrays[0];
+		leafEnd = arrays[1];
+		dfsLeaf = arrays[2];
+		dfsLeafMass = arrays[3];
+		this.massIndex = massIndex;
+	}
+
+	/**
+	 * gets the wavelet matrix over the masses of the leaves in depth-first order, null if the leaf intervals
+	 * have not been computed
+	 * */
+	WaveletMatrix getMassIndex(){
+		return massIndex;
+	}
+
+	public boolean hasLeafIntervals(){
+		return leafBegin != null;
+	}
+
+	/**
+	 * collects the leaves of the subtree of a node whose peptide mass is within the result error tolerance
+	 * of a precursor mass: the interval of the subtree in the depth-first leaf list is scanned if it is short,
+	 * otherwise the leaves are reported by the wavelet matrix
+	 * @param node
+	 * 			the root of the subtree
+	 * @param refMass
+	 * 			the precursor mass
+	 * @param leafSet
+	 * 			the leaves found are added to it
+	 * */
+	public void collectLeaves(int node, int refMass, IntList leafSet){
+		int tolerance = DoSearch2.getScaledMassTolerance();
+		int begin = leafBegin.get(node), end = leafEnd.get(node);
+		if (end - begin > maxScannedLeaves){
+			int first = leafSet.size();
+			massIndex.report(begin, end, refMass-tolerance, refMass+tolerance, leafSet);
+			if (leafTable.hasRemovedLeaves()){
+				int k = first;
+				for (int i=first; i<leafSet.size(); i++)
+					if (!leafTable.isRemoved(leafSet.get(i)))
+						leafSet.set(k++, leafSet.get(i));
+				leafSet.truncate(k);
+			}
+			return;
+		}
+		for (int i=begin; i<end; i++){
+			int mass = dfsLeafMass.get(i);
+			if (mass >= refMass-tolerance && mass <= refMass+tolerance){
+				int leaf = dfsLeaf.get(i);
+				if (!leafTable.isRemoved(leaf))
+					leafSet.add(leaf);
+			}
+		}
+	}
+
+	private void addPrefix(int endIndex){
+		int lastParentNode = NIL;
+		int parentNode;
+		char ch = charAt(endIndex);
+
+		while (true){
+			parentNode = activeNode;
+
+			//try to find a matching edge, if found we are done adding edges for this step
+			if (activeBegin > activeEnd){
+				if (findChild(activeNode, ch) != NIL)
+					break;
+			}
+			else {
+				int child = findChild(activeNode, charAt(activeBegin));
+				int span = activeEnd - activeBegin;
+				if (charAt(getEdgeBegin(activeNode, child) + span + 1) == ch)
+					break;
+				parentNode = splitEdge(activeNode, child, span);
+			}
+
+			//leaves are created in the order of the start positions of their suffixes
+			addChild(parentNode, ~leafCount);
+			leafCount++;
+			if (lastParentNode > ROOT)
+				suffixLink.set(lastParentNode, parentNode);
+			lastParentNode = parentNode;
+
+			//move to the next smaller suffix
+			if (activeNode == ROOT)
+				activeBegin++;
+			else
+				activeNode = suffixLink.get(activeNode);
+			canonize();
+		}
+		if (lastParentNode > ROOT)
+			suffixLink.set(lastParentNode, parentNode);
+		activeEnd++;
+		canonize();
+	}
+
+	/**
+	 * match the active suffix along the tree from the active node
+	 * */
+	private void canonize(){
+		if (activeBegin > activeEnd)
+			return;
+		int child = findChild(activeNode, charAt(activeBegin));
+		int span = getEdgeEnd(activeNode, child) - getEdgeBegin(activeNode, child);
+		while (span <= activeEnd - activeBegin){
+			activeBegin += span + 1;
+			activeNode = child;
+			if (activeBegin <= activeEnd){
+				child = findChild(activeNode, charAt(activeBegin));
+				span = getEdgeEnd(activeNode, child) - getEdgeBegin(activeNode, child);
+			}
+		}
+	}
+
+	/**
+	 * splits the edge from node to child after span+1 characters
+	 * @return the newly created node in the middle of the edge
+	 * */
+	private int splitEdge(int node, int child, int span){
+		int breakNode = newNode(getEdgeBegin(node, child), depth.get(node) + span + 1);
+		replaceChild(node, child, breakNode);
+		if (child >= 0)
+			edgeBegin.set(child, edgeBegin.get(child) + span + 1);
+		addChild(breakNode, child);
+		suffixLink.set(breakNode, node);
+		return breakNode;
+	}
+
+	private int newNode(int begin, int nodeDepth){
+		if (nodeCount == edgeBegin.length()){
+			int capacity = nodeCount + (nodeCount>>1) + 16;
+			edgeBegin = edgeBegin.copyOf(capacity);
+			depth = depth.copyOf(capacity);
+			suffixLink = suffixLink.copyOf(capacity);
+			firstChild = firstChild.copyOf(capacity);
+			nextSibling = nextSibling.copyOf(capacity);
+		}
+		int node = nodeCount++;
+		edgeBegin.set(node, begin);
+		depth.set(node, nodeDepth);
+		suffixLink.set(node, NIL);
+		firstChild.set(node, NIL);
+		nextSibling.set(node, NIL);
+		return node;
+	}
+
+	private void trimToSize(){
+		edgeBegin = edgeBegin.copyOf(nodeCount);
+		depth = depth.copyOf(nodeCount);
+		suffixLink = suffixLink.copyOf(nodeCount);
+		firstChild = firstChild.copyOf(nodeCount);
+		nextSibling = nextSibling.copyOf(nodeCount);
+		minPeptideMass = IntArray.allocate(nodeCount);
+		maxPeptideMass = IntArray.allocate(nodeCount);
+	}
+
+	/**
+	 * renumbers the internal nodes in depth-first order (children in the order of the sibling lists), so that
+	 * the nodes of a subtree occupy a contiguous range of ids starting at its root and the first internal child
+	 * of a node follows it. Nodes are numbered in the order of their creation by the construction, which
+	 * scatters subtrees over the arrays; walking a subtree then mostly misses the cache.
+	 * The leaves are not renumbered. Should be called before moveOffHeap().
+	 * */
+	public void reorderNodes(){
+		int[] newId = new int[nodeCount];
+		int next = 0;
+		IntList stack = new IntList();
+		IntList children = new IntList();
+		stack.add(ROOT);
+		while (!stack.isEmpty()){
+			int node = stack.removeLast();
+			newId[node] = next++;
+			for (int ref=firstChild.get(node); ref!=NIL; ref=getNextSibling(ref))
+				if (ref >= 0)
+					children.add(ref);
+			while (!children.isEmpty())
+				stack.add(children.removeLast());//the first child is numbered first
+		}
+
+		IntArray[] arrays = getArrays();
+		for (int i=0; i<arrays.length-1; i++){
+			IntArray array = IntArray.allocate(nodeCount);
+			boolean isReference = arrays[i] == suffixLink || arrays[i] == firstChild || arrays[i] == nextSibling;
+			for (int node=0; node<nodeCount; node++){
+				int value = arrays[i].get(node);
+				array.set(newId[node], isReference && value >= 0 ? newId[value] : value);
+			}
+			arrays[i] = array;
+		}
+		if (leafBegin != null){
+			IntArray begin = IntArray.allocate(nodeCount), end = IntArray.allocate(nodeCount);
+			for (int node=0; node<nodeCount; node++){
+				begin.set(newId[node], leafBegin.get(node));
+				end.set(newId[node], leafEnd.get(node));
+			}
+			leafBegin = begin;
+			leafEnd = end;
+		}
+		for (int leaf=0; leaf<leafNextSibling.length(); leaf++){
+			int ref = leafNextSibling.get(leaf);
+			if (ref >= 0)
+				leafNextSibling.set(leaf, newId[ref]);
+		}
+		edgeBegin = arrays[0];
+		depth = arrays[1];
+		suffixLink = arrays[2];
+		firstChild = arrays[3];
+		nextSibling = arrays[4];
+		minPeptideMass = arrays[5];
+		maxPeptideMass = arrays[6];
+	}
+
+	/**
+	 * moves the text, the arrays of the tree and the leaf table to off-heap memory,
+	 * should be called after the mass ranges and the leaf intervals have been computed
+	 * */
+	public void moveOffHeap(){
+		text = text.toDirect();
+		edgeBegin = edgeBegin.toDirect();
+		depth = depth.toDirect();
+		suffixLink = suffixLink.toDirect();
+		firstChild = firstChild.toDirect();
+		nextSibling = nextSibling.toDirect();
+		minPeptideMass = minPeptideMass.toDirect();
+		maxPeptideMass = maxPeptideMass.toDirect();
+		leafNextSibling = leafNextSibling.toDirect();
+		if (leafBegin != null){
+			leafBegin = leafBegin.toDirect();
+			leafEnd = leafEnd.toDirect();
+			dfsLeaf = dfsLeaf.toDirect();
+			dfsLeafMass = dfsLeafMass.toDirect();
+			massIndex.moveOffHeap();
+		}
+		leafTable.moveOffHeap();
+		leafPosition = leafTable.getLeafPositions();
+	}
+
+	/**
+	 * test if the tree is stored outside of the Java heap
+	 * */
+	public boolean isOffHeap(){
+		return edgeBegin.isDirect();
+	}
+
+	private void addChild(int node, int child){
+		setNextSibling(child, firstChild.get(node));
+		firstChild.set(node, child);
+	}
+
+	private void replaceChild(int node, int oldChild, int newChild){
+		setNextSibling(newChild, getNextSibling(oldChild));
+		if (firstChild.get(node) == oldChild){
+			firstChild.set(node, newChild);
+			return;
+		}
+		int ref = firstChild.get(node);
+		while (getNextSibling(ref) != oldChild)
+			ref = getNextSibling(ref);
+		setNextSibling(ref, newChild);
+	}
+
+	private void setNextSibling(int ref, int sibling){
+		if (ref >= 0)
+			nextSibling.set(ref, sibling);
+		else
+			leafNextSibling.set(~ref, sibling);
+	}
+
+	/**
+	 * gets the root of the tree
+	 * */
+	public int getRoot(){
+		return ROOT;
+	}
+
+	/**
+	 * get the text associated with the suffix tree
+	 * */
+	public String getText(){
+		return text.toString();
+	}
+
+	/**
+	 * gets the text as stored by the tree, one byte per character
+	 * */
+	ByteArray getTextArray(){
+		return text;
+	}
+
+	public char charAt(int index){
+		return (char) text.get(index);
+	}
+
+	/**
+	 * gets the number of internal nodes (including the root)
+	 * */
+	public int getNodeCount(){
+		return nodeCount;
+	}
+
+	/**
+	 * gets the number of leaves, one for each position of the text unless the tree is sparse
+	 * */
+	public int getNumLeaves(){
+		return leafNextSibling.length();
+	}
+
+	/**
+	 * gets the number of leaves in the subtree of a node, see computeLeafIntervals()
+	 * */
+	public int getNumLeaves(int node){
+		return leafEnd.get(node) - leafBegin.get(node);
+	}
+
+	/**
+	 * test if the tree only keeps some of the suffixes
+	 * */
+	public boolean isSparse(){
+		return leafPosition != null;
+	}
+
+	/**
+	 * test if a child reference refers to a leaf
+	 * */
+	public static boolean isLeaf(int ref){
+		return ref < 0;
+	}
+
+	/**
+	 * gets the leaf represented by a leaf reference, the index of the leaf in the leaf table
+	 * */
+	public static int getLeaf(int ref){
+		return ~ref;
+	}
+
+	/**
+	 * gets the start position of the suffix represented by a leaf reference
+	 * */
+	public int getLeafPosition(int ref){
+		return leafPosition == null ? ~ref : leafPosition.get(~ref);
+	}
+
+	public int getFirstChild(int node){
+		return firstChild.get(node);
+	}
+
+	public int getNextSibling(int ref){
+		return ref >= 0 ? nextSibling.get(ref) : leafNextSibling.get(~ref);
+	}
+
+	/**
+	 * find the child of a node whose edge starts with the given character
+	 * @return the child reference, NIL if not found
+	 * */
+	public int findChild(int node, char ch){
+		int nodeDepth = depth.get(node);
+		for (int ref=firstChild.get(node); ref!=NIL; ref=getNextSibling(ref)){
+			int begin = ref >= 0 ? edgeBegin.get(ref) : getLeafPosition(ref) + nodeDepth;
+			if (charAt(begin) == ch)
+				return ref;
+		}
+		return NIL;
+	}
+
+	/**
+	 * get the begin index of the edge from node to child
+	 * */
+	public int getEdgeBegin(int node, int child){
+		return child >= 0 ? edgeBegin.get(child) : getLeafPosition(child) + depth.get(node);
+	}
+
+	/**
+	 * get the end index (inclusive) of the edge from node to child
+	 * */
+	public int getEdgeEnd(int node, int child){
+		return child >= 0 ? edgeBegin.get(child) + depth.get(child) - depth.get(node) - 1 : textLength - 1;
+	}
+
+	/**
+	 * get the number of characters on the edge from node to child
+	 * */
+	public int getEdgeLength(int node, int child){
+		return getEdgeEnd(node, child) - getEdgeBegin(node, child) + 1;
+	}
+
+	public int getDepth(int node){
+		return depth.get(node);
+	}
+
+	public int getSuffixLink(int node){
+		return suffixLink.get(node);
+	}
+
+	public boolean hasSuffixLink(int node){
+		return suffixLink.get(node) != NIL;
+	}
+
+	public void setMinPeptideMass(int node, int mass){
+		minPeptideMass.set(node, mass);
+	}
+
+	public int getMinPeptideMass(int node){
+		return minPeptideMass.get(node);
+	}
+
+	public void setMaxPeptideMass(int node, int mass){
+		maxPeptideMass.set(node, mass);
+	}
+
+	public int getMaxPeptideMass(int node){
+		return maxPeptideMass.get(node);
+	}
+
+	public boolean inErrorTolerance(int node, int refMass){
+		return (refMass <= maxPeptideMass.get(node)) && (refMass >= minPeptideMass.get(node));
+	}
+
+	/**
+	 * gets the payloads of the leaves, indexed by leaf number (see getLeaf()): the start position of the suffix,
+	 * or for a sparse tree its rank among the indexed positions, mapped to the position by getLeafPosition()
+	 * */
+	public LeafPeptideTable getLeafTable(){
+		return leafTable;
+	}
+}
@@ -0,0 +1,165 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * Caches the positions of a flat suffix tree matched by short mass prefixes, which recur across the scans, so that
+ * a search can extend a cached frontier instead of matching the prefix from the root again (see PatternSearch).
+ * A frontier is stored as an int array, three ints (node, child, length) per matched position; frontiers with no
+ * position are cached too. The key is the mass prefix together with the search tolerance it was matched with.
+ *
+ * The cache holds at most a given number of ints; when it is full the frontiers not read recently are evicted by
+ * a clock (second chance) policy. It is shared by the searches of one tree: reads take no lock and do not reorder
+ * the entries, only one thread at a time evicts.
+ * */
+public class FrontierCache {
+	public static final int DEFAULT_MAX_PREFIX_LENGTH = 3;
+	private static final int ENTRY_OVERHEAD = 16;//ints counted for the key and the map entry of a frontier
+
+	private long capacity;
+	private int maxPrefixLength;
+	private AtomicLong size = new AtomicLong();
+	private LongAdder hits = new LongAdder();//counted per cell, the reads do not contend on one counter
+	private LongAdder misses = new LongAdder();
+	private ConcurrentHashMap<Key, Entry> frontiers = new ConcurrentHashMap<Key, Entry>();
+	private ConcurrentLinkedQueue<Key> clock = new ConcurrentLinkedQueue<Key>();//the cached keys in eviction order
+	private ReentrantLock evictLock = new ReentrantLock();
+
+	/**
+	 * key of a frontier: the masses of the prefix and the search tolerance
+	 * */
+	private static class Key {
+		private int[] masses;
+		private int tolerance;
+		private int hash;
+
+		Key(IntList prefix, int tolerance){
+			masses = prefix.toArray();
+			this.tolerance = tolerance;
+			hash = Arrays.hashCode(masses)*31 + tolerance;
+		}
+
+		public int hashCode(){
+			return hash;
+		}
+
+		public boolean equals(Object obj){
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return tolerance == other.tolerance && Arrays.equals(masses, other.masses);
+		}
+	}
+
+	/**
+	 * a cached frontier with its reference bit, set when it is read and cleared when the clock passes it
+	 * */
+	private static class Entry {
+		private final int[] frontier;
+		private volatile boolean referenced;
+
+		Entry(int[] frontier){
+			this.frontier = frontier;
+		}
+	}
+
+	/**
+	 * constructor
+	 * @param capacity
+	 * 			the number of ints the cache may hold
+	 * @param maxPrefixLength
+	 * 			the longest mass prefix whose frontier is cached
+	 * */
+	public FrontierCache(long capacity, int maxPrefixLength){
+		this.capacity = capacity;
+		this.maxPrefixLength = maxPrefixLength;
+	}
+
+	public int getMaxPrefixLength(){
+		return maxPrefixLength;
+	}
+
+	/**
+	 * gets the frontier of a mass prefix, does not lock
+	 * @param prefix
+	 * 			the masses of the prefix
+	 * @param tolerance
+	 * 			the scaled search tolerance
+	 * @return the matched positions (node, child, length), null if the prefix is not cached
+	 * */
+	public int[] get(IntList prefix, int tolerance){
+		Entry entry = frontiers.get(new Key(prefix, tolerance));
+		if (entry == null){
+			misses.increment();
+			return null;
+		}
+		hits.increment();
+		if (!entry.referenced)
+			entry.referenced = true;
+		return entry.frontier;
+	}
+
+	/**
+	 * stores the frontier of a mass prefix, if the cache is full frontiers not read since the clock last passed
+	 * them are evicted (an approximate LRU). A prefix already cached keeps its frontier, which is the same.
+	 * @param frontier
+	 * 			the matched positions (node, child, length), not modified afterwards
+	 * */
+	public void put(IntList prefix, int tolerance, int[] frontier){
+		long cost = frontier.length + ENTRY_OVERHEAD;
+		if (cost > capacity)
+			return;
+		Key key = new Key(prefix, tolerance);
+		if (frontiers.putIfAbsent(key, new Entry(frontier)) != null)
+			return;
+		clock.add(key);
+		size.addAndGet(cost);
+		//a put that finds the lock taken leaves the eviction to its holder, which checks the size again once done
+		while (size.get() > capacity && evictLock.tryLock()){
+			try {
+				evict();
+			} finally {
+				evictLock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * evicts frontiers until the cache is within its capacity, a referenced frontier is given a second chance,
+	 * called by one thread at a time
+	 * */
+	private void evict(){
+		while (size.get() > capacity){
+			Key key = clock.poll();
+			if (key == null)
+				return;
+			Entry entry = frontiers.get(key);
+			if (entry.referenced){
+				entry.referenced = false;
+				clock.add(key);
+			} else {
+				frontiers.remove(key);
+				size.addAndGet(-(entry.frontier.length + ENTRY_OVERHEAD));
+			}
+		}
+	}
+
+	public long getHits(){
+		return hits.sum();
+	}
+
+	public long getMisses(){
+		return misses.sum();
+	}
+
+	/**
+	 * gets the number of cached frontiers
+	 * */
+	public int size(){
+		return frontiers.size();
+	}
+}
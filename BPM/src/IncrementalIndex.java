@@ -0,0 +1,161 @@
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Vector;
+
+
+/**
+ * A flat suffix tree index that is updated without rebuilding it when proteins are added or removed.
+ * The index consists of shards (see IndexShard): the base shard built from the initial database and one delta
+ * shard for each batch of added proteins, so adding proteins only costs building the tree of the new proteins.
+ * A removed protein is tombstoned: its leaves are marked in the leaf table of its shard and never reported,
+ * the mass ranges of their ancestors are kept, they remain valid (if looser) bounds for pruning.
+ *
+ * The proteins are numbered in the order they were added, the numbers of the remaining proteins do not change
+ * until the index is compacted. Compaction rebuilds a single shard from the remaining proteins, it is done
+ * automatically when there are more than maxDeltaShards delta shards or the removed proteins make up more
+ * than maxRemovedFraction of the residues.
+ * */
+public class IncrementalIndex {
+	public static int maxDeltaShards = 8;
+	public static double maxRemovedFraction = 0.25;
+
+	private DoSearch2 doSearch;
+	private Vector<IndexShard> shards;
+	private HashMap<String, IntList> seqNumsOfProtein;//protein id -> sequence numbers of its remaining copies
+	private int numProteins;
+	private long numResidues;
+
+	/**
+	 * constructor, builds the base shard
+	 * @param doSearch
+	 * 			builds and preprocesses the shards
+	 * @param database
+	 * 			the initial protein database
+	 * */
+	public IncrementalIndex(DoSearch2 doSearch, ProteinDatabase database) throws IOException{
+		this.doSearch = doSearch;
+		shards = new Vector<IndexShard>();
+		seqNumsOfProtein = new HashMap<String, IntList>();
+		addShard(database);
+	}
+
+	/**
+	 * adds proteins to the index as a new delta shard
+	 * @param database
+	 * 			the new proteins, with their combined sequence
+	 * @return the sequence number of the first added protein
+	 * */
+	public int addProteins(ProteinDatabase database) throws IOException{
+		int firstSeqNum = numProteins;
+		if (database.size() > 0){
+			addShard(database);
+			compactIfNeeded();
+		}
+		return firstSeqNum;
+	}
+
+	private void addShard(ProteinDatabase database) throws IOException{
+		addShard(doSearch.buildShard(database, numProteins));
+	}
+
+	private void addShard(IndexShard shard){
+		ProteinDatabase database = shard.getProteinDatabase();
+		shards.add(shard);
+		for (int i=0; i<database.size(); i++){
+			IntList seqNums = seqNumsOfProtein.get(database.getProteinID(i));
+			if (seqNums == null){
+				seqNums = new IntList(1);
+				seqNumsOfProtein.put(database.getProteinID(i), seqNums);
+			}
+			seqNums.add(numProteins+i);
+			numResidues += database.getSeqLength(i);
+		}
+		numProteins += database.size();
+	}
+
+	/**
+	 * removes a protein from the index
+	 * @param proteinID
+	 * 			the protein id, every copy of the protein is removed
+	 * @return the number of removed proteins, 0 if the index holds no protein with the id
+	 * */
+	public int removeProtein(String proteinID) throws IOException{
+		IntList seqNums = seqNumsOfProtein.remove(proteinID);
+		if (seqNums == null)
+			return 0;
+		for (int i=0; i<seqNums.size(); i++){
+			IndexShard shard = findShard(seqNums.get(i));
+			shard.removeProtein(seqNums.get(i)-shard.getFirstSeqNum());
+		}
+		compactIfNeeded();
+		return seqNums.size();
+	}
+
+	/**
+	 * finds the shard holding a protein
+	 * */
+	private IndexShard findShard(int seqNum){
+		int low = 0, high = shards.size()-1;
+		while (low < high){
+			int middle = (low+high+1)>>>1;
+			if (shards.get(middle).getFirstSeqNum() <= seqNum)
+				low = middle;
+			else
+				high = middle - 1;
+		}
+		return shards.get(low);
+	}
+
+	/**
+	 * test if the index should be compacted
+	 * */
+	public boolean needsCompaction(){
+		long removedResidues = 0;
+		for (int k=0; k<shards.size(); k++)
+			removedResidues += shards.get(k).getRemovedResidues();
+		return shards.size()-1 > maxDeltaShards || removedResidues > maxRemovedFraction*numResidues;
+	}
+
+	private void compactIfNeeded() throws IOException{
+		if (needsCompaction())
+			compact();
+	}
+
+	/**
+	 * rebuilds the index as a single shard holding the remaining proteins, renumbering them from 0
+	 * */
+	public void compact() throws IOException{
+		ProteinDatabase database = new ProteinDatabase();
+		for (int k=0; k<shards.size(); k++){
+			IndexShard shard = shards.get(k);
+			ProteinDatabase shardDatabase = shard.getProteinDatabase();
+			for (int i=0; i<shard.size(); i++){
+				if (!shard.isRemoved(i)){
+					database.addParsedProteinID(shardDatabase.getProteinID(i));
+					database.addIndividualSeq(shardDatabase.getIndividualSeq(i));
+				}
+			}
+		}
+		database.buildSequence();
+		IndexShard shard = doSearch.buildShard(database, 0);
+		shards.clear();
+		seqNumsOfProtein.clear();
+		numProteins = 0;
+		numResidues = 0;
+		addShard(shard);
+	}
+
+	/**
+	 * gets the shards of the index, to be searched by DoSearch2; the array is only valid until the next update
+	 * */
+	public IndexShard[] getShards(){
+		return shards.toArray(new IndexShard[shards.size()]);
+	}
+
+	/**
+	 * gets the number of proteins added to the index since it was last compacted, including the removed ones
+	 * */
+	public int size(){
+		return numProteins;
+	}
+}
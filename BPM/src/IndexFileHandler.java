@@ -0,0 +1,353 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+
+/**
+ * Saves a preprocessed flat suffix tree to a binary index file and loads it back by memory mapping the file,
+ * so that a search does not have to parse the fasta file, build the tree and compute the peptide masses again.
+ *
+ * File layout (little endian, every section starts at a multiple of 8 bytes):
+ *   header: magic "BPMINDEX", version, fingerprint, text length, number of internal nodes, number of proteins,
+ *           number of leaves, flags, number of peptides, number of distinct peptides
+ *   the combined sequence (one byte per character)
+ *   the individual sequences concatenated (one byte per character), followed by their lengths
+ *   the protein ids, UTF-8 encoded and separated by '\n', preceded by their number of bytes
+ *   the node arrays and leafNextSibling of the tree, see FlatSuffixTree.getArrays()
+ *   the leaf intervals of the tree, see FlatSuffixTree.getLeafIntervalArrays()
+ *   the number of bits of the wavelet matrix over the leaf masses, followed by its arrays, see WaveletMatrix.getArrays()
+ *   the leaf arrays, see LeafPeptideTable.getArrays()
+ *   the text positions of the leaves, only if the tree is sparse (fewer leaves than text positions)
+ *   the peptide dictionary, see PeptideDictionary.getArrays()
+ *
+ * The sections of the tree are not copied when loading: the tree accesses the text and its arrays directly
+ * in the mapped file, outside of the Java heap.
+ *
+ * The fingerprint is computed from the fasta file and the parameters the index depends on, an index file
+ * whose fingerprint differs from the expected one is rejected.
+ * */
+public class IndexFileHandler {
+	public static final int VERSION = 5;
+	//digestion rule applied by ProteinDatabase.extractPeptideFromSeq2() and DatabaseFileHandler.loadDatabase()
+	public static final String DIGESTION = "trypsin:KR/noP,removeFirstM,L=I";
+	private static final byte[] MAGIC = {'B', 'P', 'M', 'I', 'N', 'D', 'E', 'X'};
+	private static final int HEADER_SIZE = 48;
+	private static final int NUM_TREE_ARRAYS = 8;
+	private static final int NUM_INTERVAL_ARRAYS = 4;
+	private static final int NUM_LEAF_ARRAYS = 1;
+	private static final int NUM_DICTIONARY_ARRAYS = 6;
+	private static final int UNIQUE_PEPTIDES = 1;//flag: the leaves only cover the first occurrence of each distinct peptide
+	private static final int BUFFER_SIZE = 1<<16;
+
+	private ProteinDatabase database;
+	private FileChannel channel;
+	private long offset;
+
+	/**
+	 * computes the fingerprint of an index
+	 * @param proteinDatabaseFile
+	 * 			the fasta file the index is built from
+	 * @param scaleFactor
+	 * 			scale factor of the mass table
+	 * @param scaledMassTolerance
+	 * 			the scaled result error tolerance, the mass ranges of the nodes are widened by it
+	 * @return the first 8 bytes of the SHA-1 digest of the file and the parameters
+	 * */
+	public long computeFingerprint(String proteinDatabaseFile, int scaleFactor, int scaledMassTolerance) throws IOException{
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		FileInputStream fis = new FileInputStream(proteinDatabaseFile);
+		byte[] buffer = new byte[BUFFER_SIZE];
+		int len;
+		while ((len = fis.read(buffer)) > 0)
+			md.update(buffer, 0, len);
+		fis.close();
+		String parameters = "version:"+VERSION+";digestion:"+DIGESTION+";scale:"+scaleFactor+";tolerance:"+scaledMassTolerance;
+		md.update(parameters.getBytes("UTF-8"));
+		return ByteBuffer.wrap(md.digest()).getLong();
+	}
+
+	/**
+	 * writes a preprocessed tree to an index file
+	 * @param indexFile
+	 * 			file name of the index
+	 * @param tree
+	 * 			the tree, the mass ranges of its nodes and leaves and its leaf intervals must have been computed
+	 * @param database
+	 * 			the protein database the tree is built from
+	 * @param fingerprint
+	 * 			see computeFingerprint()
+	 * */
+	public void writeIndex(String indexFile, FlatSuffixTree tree, ProteinDatabase database, long fingerprint) throws IOException{
+		LeafPeptideTable leafTable = tree.getLeafTable();
+		writeIndex(indexFile, tree.getTextArray(), database, tree.getNodeCount(), tree.getArrays(), tree.getLeafIntervalArrays(),
+				tree.getMassIndex(), leafTable.getArrays(), tree.isSparse() ? leafTable.getLeafPositions() : null,
+				leafTable.hasUniquePeptides(), fingerprint);
+	}
+
+	/**
+	 * writes an index file from the arrays of a preprocessed tree, which may be stored in other files
+	 * (see PartitionedIndexBuilder)
+	 * @param text
+	 * 			the combined sequence
+	 * @param nodeCount
+	 * 			the number of internal nodes
+	 * @param treeArrays
+	 * 			see FlatSuffixTree.getArrays()
+	 * @param intervalArrays
+	 * 			see FlatSuffixTree.getLeafIntervalArrays()
+	 * @param massIndex
+	 * 			the wavelet matrix over the masses of the leaves in depth-first order
+	 * @param leafArrays
+	 * 			see LeafPeptideTable.getArrays()
+	 * @param leafPositions
+	 * 			the positions of the leaves of a sparse tree, null if every position is a leaf
+	 * */
+	void writeIndex(String indexFile, ByteArray text, ProteinDatabase database, int nodeCount, IntArray[] treeArrays,
+			IntArray[] intervalArrays, WaveletMatrix massIndex, IntArray[] leafArrays, IntArray leafPositions,
+			boolean uniquePeptides, long fingerprint) throws IOException{
+		RandomAccessFile file = new RandomAccessFile(indexFile, "rw");
+		file.setLength(0);
+		channel = file.getChannel();
+		offset = 0;
+		int numProteins = database.size();
+		PeptideDictionary dictionary = database.getPeptideDictionary();
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		header.put(MAGIC);
+		header.putInt(VERSION);
+		header.putLong(fingerprint);
+		header.putInt(text.length());
+		header.putInt(nodeCount);
+		header.putInt(numProteins);
+		header.putInt(treeArrays[NUM_TREE_ARRAYS-1].length());
+		header.putInt(uniquePeptides ? UNIQUE_PEPTIDES : 0);
+		header.putInt(dictionary.getNumPeptides());
+		header.putInt(dictionary.size());
+		header.clear();
+		write(header);
+
+		writeBytes(text);
+		pad();
+		int[] seqLength = new int[numProteins];
+		for (int i=0; i<numProteins; i++){
+			writeBytes(ByteArray.fromString(database.getIndividualSeq(i)));
+			seqLength[i] = database.getSeqLength(i);
+		}
+		pad();
+		writeInts(IntArray.wrap(seqLength));
+
+		StringBuilder ids = new StringBuilder();
+		for (int i=0; i<numProteins; i++)
+			ids.append(database.getProteinID(i)).append('\n');
+		byte[] idBytes = ids.toString().getBytes("UTF-8");
+		writeInts(IntArray.wrap(new int[]{idBytes.length}));
+		write(ByteBuffer.wrap(idBytes));
+		pad();
+
+		for (int i=0; i<treeArrays.length; i++)
+			writeInts(treeArrays[i]);
+		for (int i=0; i<intervalArrays.length; i++)
+			writeInts(intervalArrays[i]);
+		writeInts(IntArray.wrap(new int[]{massIndex.getNumBits()}));
+		IntArray[] waveletArrays = massIndex.getArrays();
+		for (int i=0; i<waveletArrays.length; i++)
+			writeInts(waveletArrays[i]);
+		for (int i=0; i<leafArrays.length; i++)
+			writeInts(leafArrays[i]);
+		if (leafPositions != null)
+			writeInts(leafPositions);
+		IntArray[] dictionaryArrays = dictionary.getArrays();
+		for (int i=0; i<dictionaryArrays.length; i++)
+			writeInts(dictionaryArrays[i]);
+
+		channel.force(false);
+		channel = null;
+		file.close();
+	}
+
+	private void write(ByteBuffer buffer) throws IOException{
+		while (buffer.hasRemaining())
+			offset += channel.write(buffer);
+	}
+
+	/**
+	 * writes a text of single-byte characters
+	 * */
+	private void writeBytes(ByteArray text) throws IOException{
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		for (int i=0; i<text.length(); i++){
+			buffer.put(text.get(i));
+			if (!buffer.hasRemaining()){
+				buffer.flip();
+				write(buffer);
+				buffer.clear();
+			}
+		}
+		buffer.flip();
+		write(buffer);
+	}
+
+	private void writeInts(IntArray array) throws IOException{
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		IntBuffer ints = buffer.asIntBuffer();
+		int[] chunk = new int[ints.capacity()];
+		for (int i=0; i<array.length(); i+=chunk.length){
+			int len = Math.min(chunk.length, array.length()-i);
+			array.copyTo(i, chunk, 0, len);
+			ints.clear();
+			ints.put(chunk, 0, len);
+			buffer.clear();
+			buffer.limit(len*4);
+			write(buffer);
+		}
+		pad();
+	}
+
+	/**
+	 * pads the file to the next multiple of 8 bytes
+	 * */
+	private void pad() throws IOException{
+		int len = (int) ((8 - offset%8) % 8);
+		if (len > 0)
+			write(ByteBuffer.allocate(len));
+	}
+
+	/**
+	 * loads an index file written by writeIndex()
+	 * @param indexFile
+	 * 			file name of the index
+	 * @param fingerprint
+	 * 			the expected fingerprint, see computeFingerprint()
+	 * @return the tree, stored in the mapped file; the protein database it refers to can be obtained by
+	 * 			getProteinDatabase(), its combined sequence is not restored since the tree keeps it
+	 * @throws IOException if the file is not a valid index or its fingerprint differs
+	 * */
+	public FlatSuffixTree loadIndex(String indexFile, long fingerprint) throws IOException{
+		RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+		channel = file.getChannel();
+		offset = 0;
+		try {
+			if (channel.size() < HEADER_SIZE)
+				throw new IOException(indexFile+" is not a BPM index file");
+			ByteBuffer header = map(HEADER_SIZE);
+			byte[] magic = new byte[MAGIC.length];
+			header.get(magic);
+			for (int i=0; i<MAGIC.length; i++)
+				if (magic[i] != MAGIC[i])
+					throw new IOException(indexFile+" is not a BPM index file");
+			int version = header.getInt();
+			if (version != VERSION)
+				throw new IOException(indexFile+": unsupported index version "+version+", expected "+VERSION);
+			if (header.getLong() != fingerprint)
+				throw new IOException(indexFile+" is stale: it was built from a different protein database or with different parameters, run build-index again");
+			int textLength = header.getInt();
+			int nodeCount = header.getInt();
+			int numProteins = header.getInt();
+			int numLeaves = header.getInt();
+			int flags = header.getInt();
+			int numPeptides = header.getInt();
+			int numDistinct = header.getInt();
+
+			ByteArray text = ByteArray.wrap(map(textLength));
+			skipPadding();
+			byte[] seqBytes = readBytes(textLength - numProteins);
+			int[] seqLength = new int[numProteins];
+			mapInts(numProteins).copyTo(0, seqLength, 0, numProteins);
+			int idLength = mapInts(1).get(0);
+			String[] ids = new String(readBytes(idLength), "UTF-8").split("\n", -1);
+
+			database = new ProteinDatabase();
+			int pos = 0;
+			for (int i=0; i<numProteins; i++){
+				database.addParsedProteinID(ids[i]);
+				database.addIndividualSeq(new String(seqBytes, pos, seqLength[i], "ISO-8859-1"));
+				pos += seqLength[i];
+			}
+			seqBytes = null;
+
+			IntArray[] treeArrays = new IntArray[NUM_TREE_ARRAYS];
+			for (int i=0; i<NUM_TREE_ARRAYS; i++)
+				treeArrays[i] = mapInts(i < NUM_TREE_ARRAYS-1 ? nodeCount : numLeaves);
+			IntArray[] intervalArrays = new IntArray[NUM_INTERVAL_ARRAYS];
+			for (int i=0; i<NUM_INTERVAL_ARRAYS; i++)
+				intervalArrays[i] = mapInts(i < 2 ? nodeCount : numLeaves);
+			int numBits = mapInts(1).get(0);
+			long levelsLength = WaveletMatrix.getLevelsLength(numLeaves, numBits);
+			if (levelsLength > Integer.MAX_VALUE)
+				throw new IOException(indexFile+" is corrupted");
+			IntArray[] waveletArrays = {mapInts((int) levelsLength), mapInts(numBits), mapInts(numLeaves)};
+			IntArray[] leafArrays = new IntArray[NUM_LEAF_ARRAYS];
+			for (int i=0; i<NUM_LEAF_ARRAYS; i++)
+				leafArrays[i] = mapInts(numLeaves);
+			IntArray leafPosition = numLeaves < textLength ? mapInts(numLeaves) : null;
+			//peptideMass, occurrenceStart, occurrences, peptideStart, peptideId, seqFirstPeptide
+			int[] dictionarySizes = {numDistinct, numDistinct+1, numPeptides, numPeptides, numPeptides, numProteins+1};
+			IntArray[] dictionaryArrays = new IntArray[NUM_DICTIONARY_ARRAYS];
+			for (int i=0; i<NUM_DICTIONARY_ARRAYS; i++)
+				dictionaryArrays[i] = mapInts(dictionarySizes[i]);
+			database.setPeptideDictionary(new PeptideDictionary(database, dictionaryArrays));
+			LeafPeptideTable leafTable = new LeafPeptideTable(database, leafArrays, leafPosition, (flags & UNIQUE_PEPTIDES) != 0);
+			FlatSuffixTree tree = new FlatSuffixTree(text, treeArrays, leafTable);
+			tree.setLeafIntervalArrays(intervalArrays, new WaveletMatrix(waveletArrays));
+			return tree;
+		} finally {
+			channel = null;
+			file.close();
+		}
+	}
+
+	/**
+	 * gets the protein database restored by the last call of loadIndex()
+	 * */
+	public ProteinDatabase getProteinDatabase(){
+		return database;
+	}
+
+	/**
+	 * skips to the next multiple of 8 bytes
+	 * */
+	private void skipPadding(){
+		offset = (offset + 7) & ~7L;
+	}
+
+	/**
+	 * maps the next size bytes of the file
+	 * */
+	private ByteBuffer map(long size) throws IOException{
+		if (offset + size > channel.size())
+			throw new IOException("index file is truncated");
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		offset += size;
+		return buffer;
+	}
+
+	private byte[] readBytes(int size) throws IOException{
+		byte[] bytes = new byte[size];
+		if (size > 0)
+			map(size).get(bytes);
+		skipPadding();
+		return bytes;
+	}
+
+	/**
+	 * maps the next size ints of the file
+	 * */
+	private IntArray mapInts(int size) throws IOException{
+		IntArray array = IntArray.wrap(map(size*4L).asIntBuffer());
+		skipPadding();
+		return array;
+	}
+}
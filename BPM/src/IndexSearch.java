@@ -0,0 +1,33 @@
+/**
+ * Searches patterns against an index whose leaves are identified by the start position of their suffix
+ * in the combined sequence, see LeafPeptideTable.
+ * */
+public interface IndexSearch {
+
+	/**
+	 * search a pattern against the index
+	 * @param pattern 
+	 * 			the given pattern consisting of several numbers
+	 * @param scanNum
+	 * 			the scan the pattern comes from, its mass is used to filter the leaves
+	 * @return the leaves (see LeafPeptideTable) matching the pattern, null if no match found
+	 * */
+	public IntList searchLeafPositions(Pattern pattern, int scanNum);
+
+	/**
+	 * search the patterns of a trie against the index, matching the shared prefixes of the patterns once
+	 * @param trie
+	 * 			the patterns of a scan
+	 * @param scanNum
+	 * 			the scan the patterns come from, its mass is used to filter the leaves
+	 * @return the leaves matching any of the patterns, a leaf may be returned more than once
+	 * */
+	public IntList searchLeafPositions(PatternTrie trie, int scanNum);
+
+	/**
+	 * starts the search of a new scan, called before its patterns are searched: the search forgets what it kept
+	 * about the previous scan (e.g. the nodes already reported by PatternSearch), so that the leaves reached
+	 * again are reported for the new scan
+	 * */
+	public void startScan();
+}
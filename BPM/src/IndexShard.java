@@ -0,0 +1,126 @@
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Iterator;
+
+
+/**
+ * One shard of a sharded index: a flat suffix tree over a range of the proteins of the database, built, saved
+ * and searched independently of the other shards. Sequence numbers inside the shard start from 0, the shard
+ * covers the proteins [firstSeqNum, firstSeqNum+size) of the whole database.
+ * A shard can only be searched by one thread at a time.
+ * Removed proteins stay in the tree until the shard is rebuilt, they are excluded from the search results.
+ * */
+public class IndexShard {
+	private FlatSuffixTree tree;
+	private ProteinDatabase database;
+	private int firstSeqNum;
+	private PatternSearch flatSearch;
+	private IndexSearch indexSearch;//flatSearch, wrapped by a UniquePeptideSearch if the tree has unique peptides
+	private IntList searchResult;
+	private PatternTrie trie;
+	private BitSet removed;
+	private long removedResidues;
+
+	/**
+	 * constructor
+	 * @param tree
+	 * 			the preprocessed tree of the shard
+	 * @param database
+	 * 			the proteins of the shard
+	 * @param firstSeqNum
+	 * 			sequence number of the first protein of the shard in the whole database
+	 * */
+	public IndexShard(FlatSuffixTree tree, ProteinDatabase database, int firstSeqNum, MassTable mt, PeptideFileHandler pf){
+		this.tree = tree;
+		this.database = database;
+		this.firstSeqNum = firstSeqNum;
+		flatSearch = new PatternSearch(tree, mt, pf);
+		indexSearch = flatSearch;
+		if (tree.getLeafTable().hasUniquePeptides())
+			indexSearch = new UniquePeptideSearch(flatSearch, new RepeatedPeptides(tree), tree.getLeafTable(), mt, pf);
+		searchResult = new IntList();
+		trie = new PatternTrie();
+		removed = new BitSet();
+	}
+
+	/**
+	 * searches the patterns of a scan against the shard
+	 * @param patterns
+	 * 			the patterns extracted from the scan
+	 * @return the matched leaves (text positions of the occurrences if the tree has unique peptides) in
+	 * 			ascending order, valid until the next call
+	 * */
+	public IntList searchScan(HashSet<?> patterns, int scanNum){
+		searchResult.clear();
+		indexSearch.startScan();
+		if (DoSearch2.patternTrie){
+			trie.clear();
+			trie.addAll(patterns);
+			IntList leafSet = indexSearch.searchLeafPositions(trie, scanNum);
+			for (int j=0; j<leafSet.size(); j++)
+				searchResult.add(leafSet.get(j));
+		}
+		else {
+			Iterator<?> ite = patterns.iterator();
+			while (ite.hasNext()){
+				IntList leafSet = indexSearch.searchLeafPositions((Pattern) ite.next(), scanNum);
+				if (leafSet != null){
+					for (int j=0; j<leafSet.size(); j++)
+						searchResult.add(leafSet.get(j));
+				}
+			}
+		}
+		searchResult.sortAndRemoveDuplicates();
+		return searchResult;
+	}
+
+	/**
+	 * caches the frontiers of the short mass prefixes searched in the shard, see FrontierCache
+	 * */
+	public void setFrontierCache(FrontierCache cache){
+		flatSearch.setFrontierCache(cache);
+	}
+
+	public LeafPeptideTable getLeafTable(){
+		return tree.getLeafTable();
+	}
+
+	public ProteinDatabase getProteinDatabase(){
+		return database;
+	}
+
+	public int getFirstSeqNum(){
+		return firstSeqNum;
+	}
+
+	/**
+	 * gets the number of proteins of the shard
+	 * */
+	public int size(){
+		return database.size();
+	}
+
+	/**
+	 * removes a protein from the search results of the shard, the cost is proportional to its length
+	 * @param seqNum
+	 * 			the sequence number of the protein inside the shard
+	 * */
+	public void removeProtein(int seqNum){
+		if (removed.get(seqNum))
+			return;
+		tree.getLeafTable().removeSequence(seqNum);
+		removed.set(seqNum);
+		removedResidues += database.getSeqLength(seqNum);
+	}
+
+	public boolean isRemoved(int seqNum){
+		return removed.get(seqNum);
+	}
+
+	/**
+	 * gets the total length of the removed proteins
+	 * */
+	public long getRemovedResidues(){
+		return removedResidues;
+	}
+}
@@ -0,0 +1,231 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Vector;
+
+
+/**
+ * Checks that the index types of DoSearch2 give the same results. A small protein database, with proteins and
+ * segments shared by several proteins and copies whose repeated peptides are followed by other residues, and a de
+ * novo result file are generated; the scans are searched with every index type and the sorted output of each is
+ * compared with the one of "tree". The sparse indexes over the peptide boundaries are compared with each other,
+ * and the searches with several threads must write the same unsorted output as one thread. Exits with status 1 if
+ * an output differs.
+ *
+ * args[0]: (optional) directory of the generated files, a new temporary directory by default
+ * */
+public class IndexTypeTest {
+	private static final String AMINO_ACIDS = "ARNDCEQGHILKMFPSTWYV";
+	private static final double[] RESIDUE_MASS = {71.03711, 156.10111, 114.04293, 115.02694, 160.030654, 129.04259,
+		128.05858, 57.02146, 137.05891, 113.08406, 113.08406, 128.09496, 131.04049, 147.06841, 97.05276, 87.03203,
+		101.04768, 186.07931, 163.06333, 99.06841};//in the order of AMINO_ACIDS
+	private static final double WATER_MASS = 18.0106;
+
+	private File dir;
+	private String database;
+	private String peptideFile;
+	private int failures = 0;
+
+	public IndexTypeTest(File dir){
+		this.dir = dir;
+		database = new File(dir, "proteins.fasta").getPath();
+		peptideFile = new File(dir, "denovo").getPath();
+	}
+
+	/**
+	 * writes the protein database and the de novo results of its peptides, with a few residues changed
+	 * */
+	private void generateFiles(Random random) throws IOException{
+		ArrayList<String> proteins = new ArrayList<String>();
+		PrintWriter writer = new PrintWriter(database);
+		for (int i=0; i<120; i++){
+			StringBuilder protein = new StringBuilder("M");
+			int length = 80 + random.nextInt(400);
+			for (int k=0; k<length; k++)
+				protein.append(AMINO_ACIDS.charAt(random.nextInt(AMINO_ACIDS.length())));
+			if (!proteins.isEmpty() && random.nextInt(10) < 5){
+				//a copy of another protein, as is or with the residue after each K and R changed, or a segment of it, as
+				//in isoforms; the changed copy repeats the peptides of the other protein but they are followed differently
+				String other = proteins.get(random.nextInt(proteins.size()));
+				int variant = random.nextInt(3);
+				if (variant < 2){
+					protein = new StringBuilder(other);
+					for (int k=1; variant==1 && k<protein.length(); k++){
+						char previous = protein.charAt(k-1);
+						if (previous == 'K' || previous == 'R')
+							protein.setCharAt(k, protein.charAt(k) == 'A' ? 'G' : 'A');
+					}
+				}
+				else {
+					int from = random.nextInt(other.length()-40);
+					protein.insert(50, other.substring(from, from+40));
+				}
+			}
+			proteins.add(protein.toString());
+			writer.println(">sp|P"+i+"|PROT_"+i+" generated");
+			for (int k=0; k<protein.length(); k+=60)
+				writer.println(protein.substring(k, Math.min(protein.length(), k+60)));
+		}
+		writer.close();
+
+		writer = new PrintWriter(peptideFile);
+		writer.println("Scan Peptide Tag ALC length mz z Mass ppm Conf");
+		for (int scan=1; scan<=300; scan++){
+			String protein = proteins.get(random.nextInt(proteins.size())).substring(1);
+			ArrayList<String> peptides = getTrypticPeptides(protein);
+			if (peptides.isEmpty())
+				continue;
+			String peptide = peptides.get(random.nextInt(peptides.size()));
+			double mass = WATER_MASS;
+			for (int k=0; k<peptide.length(); k++)
+				mass += RESIDUE_MASS[AMINO_ACIDS.indexOf(peptide.charAt(k))];
+			for (int candidate=random.nextInt(3); candidate>=0; candidate--){
+				//some candidates are shifted along the protein, their tags run past the end of the peptide
+				int start = protein.indexOf(peptide) + random.nextInt(4);
+				char[] residues = protein.substring(start, Math.min(protein.length(), start+peptide.length())).toCharArray();
+				for (int change=random.nextInt(3); change>0; change--)
+					residues[random.nextInt(residues.length)] = AMINO_ACIDS.charAt(random.nextInt(AMINO_ACIDS.length()));
+				StringBuilder line = new StringBuilder();
+				line.append(scan+" "+new String(residues)+" x 50 "+residues.length+" 500.0 2 "+String.format(Locale.ROOT, "%.4f", mass)+" 1.0");
+				for (int k=0; k<residues.length; k++)
+					line.append(" "+(random.nextBoolean() ? 5+random.nextInt(55) : 60+random.nextInt(40)));
+				writer.println(line);
+			}
+		}
+		writer.close();
+	}
+
+	/**
+	 * cuts a protein after K and R, keeping the peptides of 6 to 25 residues
+	 * */
+	private static ArrayList<String> getTrypticPeptides(String protein){
+		ArrayList<String> peptides = new ArrayList<String>();
+		int start = 0;
+		for (int i=0; i<protein.length(); i++){
+			char ch = protein.charAt(i);
+			if (i == protein.length()-1 || ch == 'K' || ch == 'R'){
+				if (i+1-start >= 6 && i+1-start <= 25)
+					peptides.add(protein.substring(start, i+1));
+				start = i+1;
+			}
+		}
+		return peptides;
+	}
+
+	/**
+	 * searches the scans with an index type
+	 * @param name
+	 * 			name of the output file
+	 * @param indexArgs
+	 * 			args[8..11] of DoSearch2.main(): the index type, its argument, the traversal and the number of threads
+	 * @return the lines of the output
+	 * */
+	private ArrayList<String> search(String name, String searchError, String... indexArgs) throws IOException{
+		String outFile = new File(dir, name).getPath();
+		String[] args = {database, peptideFile, "4", "4", searchError, "2.0", "30", outFile, "", "0", "str", "1"};
+		System.arraycopy(indexArgs, 0, args, 8, indexArgs.length);
+		DoSearch2.main(args);
+		return readLines(outFile);
+	}
+
+	private static ArrayList<String> readLines(String file) throws IOException{
+		ArrayList<String> lines = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		for (String line=reader.readLine(); line!=null; line=reader.readLine())
+			lines.add(line);
+		reader.close();
+		return lines;
+	}
+
+	private static ArrayList<String> sorted(ArrayList<String> lines){
+		ArrayList<String> copy = new ArrayList<String>(lines);
+		Collections.sort(copy);
+		return copy;
+	}
+
+	private void compare(String description, ArrayList<String> expected, ArrayList<String> actual){
+		if (expected.equals(actual))
+			System.out.println("IndexTypeTest: "+description+": ok ("+actual.size()+" lines)");
+		else {
+			System.out.println("IndexTypeTest: "+description+": DIFFERENT ("+actual.size()+" lines, expected "+expected.size()+")");
+			failures++;
+		}
+	}
+
+	/**
+	 * builds the index files of the types "mapped" and "mapped-shards"
+	 * @return the shard list of "mapped-shards"
+	 * */
+	private String buildIndexFiles() throws IOException{
+		DoSearch2.main(new String[]{"build-index", database, new File(dir, "proteins.idx").getPath(), "2.0"});
+		DatabaseFileHandler da = new DatabaseFileHandler();
+		Vector<String> shardFiles = da.splitDatabase(database, 3, new File(dir, "shard").getPath());
+		String shardList = new File(dir, "shards.txt").getPath();
+		PrintWriter writer = new PrintWriter(shardList);
+		for (int k=0; k<shardFiles.size(); k++){
+			String indexFile = shardFiles.get(k)+".idx";
+			DoSearch2.main(new String[]{"build-index", shardFiles.get(k), indexFile, "2.0"});
+			writer.println(shardFiles.get(k)+" "+indexFile);
+		}
+		writer.close();
+		return shardList;
+	}
+
+	public void run() throws IOException{
+		generateFiles(new Random(7));
+		String indexFile = new File(dir, "proteins.idx").getPath();
+		String shardList = buildIndexFiles();
+		for (String searchError : new String[]{"0.0", "0.05"}){
+			String[][] indexes = {{"flat"}, {"parallel"}, {"offheap"}, {"sa"}, {"fm"}, {"lazy"},
+					{"mapped", indexFile}, {"sharded", "3"}, {"mapped-shards", shardList},
+					{"sparse", "100000"}, {"unique", "100000"},
+					{"tree", "0", "mass"}, {"flat", "0", "mass"}, {"flat", "0", "str", "3"}};
+			ArrayList<String> tree = search("out-tree", searchError, "tree");
+			ArrayList<String> expected = sorted(tree);
+			for (String[] index : indexes)
+				compare(searchError+" "+String.join(" ", index), expected, sorted(search("out-"+index[0], searchError, index)));
+
+			//only the tags starting near a peptide boundary are found, in both sparse indexes
+			compare(searchError+" unique 2 against sparse 2", sorted(search("out-sparse", searchError, "sparse", "2")),
+					sorted(search("out-unique", searchError, "unique", "2")));
+			//the parallel searches write the scans in order and the results of a scan in match order
+			compare(searchError+" tree with 3 threads, unsorted", tree, search("out-tree3", searchError, "tree", "0", "str", "3"));
+			compare(searchError+" flat with 3 threads, unsorted", search("out-flat1", searchError, "flat"),
+					search("out-flat3", searchError, "flat", "0", "str", "3"));
+		}
+	}
+
+	public static void main(final String[] args) throws Exception{
+		final File dir = args.length > 0 ? new File(args[0]) : File.createTempFile("IndexTypeTest", "");
+		if (args.length == 0)
+			dir.delete();
+		dir.mkdirs();
+		final IndexTypeTest test = new IndexTypeTest(dir);
+		//the suffix tree is built and searched recursively, which needs a large stack
+		final Exception[] error = new Exception[1];
+		Thread thread = new Thread(null, new Runnable(){
+			public void run(){
+				try {
+					test.run();
+				} catch (Exception e) {
+					error[0] = e;
+				}
+			}
+		}, "IndexTypeTest", 1L<<26);
+		thread.start();
+		thread.join();
+		if (error[0] != null)
+			throw error[0];
+		if (test.failures > 0){
+			System.out.println("IndexTypeTest: "+test.failures+" index types differ, files in "+dir);
+			System.exit(1);
+		}
+		System.out.println("IndexTypeTest: ok, files in "+dir);
+	}
+}
@@ -0,0 +1,146 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+
+/**
+ * A fixed-size array of ints, stored either in an int[] on the Java heap or outside of the heap in a direct
+ * (or memory mapped) ByteBuffer. The index structures access their large arrays through IntArray, so that
+ * they can be moved off-heap once they are built; off-heap arrays are never scanned or copied by the garbage collector.
+ * A direct array holds at most Integer.MAX_VALUE/4 ints.
+ * */
+public abstract class IntArray {
+
+	public abstract int get(int i);
+
+	public abstract void set(int i, int value);
+
+	public abstract int length();
+
+	/**
+	 * test if the array is stored outside of the Java heap
+	 * */
+	public abstract boolean isDirect();
+
+	/**
+	 * allocates an array on the heap, initialized with 0
+	 * */
+	public static IntArray allocate(int length){
+		return new Heap(new int[length]);
+	}
+
+	/**
+	 * allocates an array off-heap, initialized with 0
+	 * @throws IllegalArgumentException if length is negative or larger than Integer.MAX_VALUE/4, the number
+	 * 			of bytes would not fit in a ByteBuffer
+	 * */
+	public static IntArray allocateDirect(int length){
+		if (length < 0 || length > Integer.MAX_VALUE/4)
+			throw new IllegalArgumentException("cannot allocate "+length+" ints off-heap, a direct array holds at most "+Integer.MAX_VALUE/4+" ints");
+		return new Direct(ByteBuffer.allocateDirect(length*4).order(ByteOrder.nativeOrder()).asIntBuffer());
+	}
+
+	/**
+	 * wraps an int[], changes of the array are visible in the IntArray and vice versa
+	 * */
+	public static IntArray wrap(int[] array){
+		return new Heap(array);
+	}
+
+	/**
+	 * wraps a view of a direct or mapped buffer, the array ranges over the whole buffer
+	 * */
+	public static IntArray wrap(IntBuffer buffer){
+		return new Direct(buffer);
+	}
+
+	/**
+	 * copies the array to the heap, truncating or padding with 0 to the new length
+	 * */
+	public IntArray copyOf(int newLength){
+		int[] array = new int[newLength];
+		copyTo(0, array, 0, Math.min(newLength, length()));
+		return new Heap(array);
+	}
+
+	/**
+	 * copies the array to a newly allocated off-heap array
+	 * */
+	public IntArray toDirect(){
+		IntArray copy = allocateDirect(length());
+		for (int i=0; i<length(); i++)
+			copy.set(i, get(i));
+		return copy;
+	}
+
+	/**
+	 * copies length ints starting at srcPos to dest
+	 * */
+	public void copyTo(int srcPos, int[] dest, int destPos, int length){
+		for (int i=0; i<length; i++)
+			dest[destPos+i] = get(srcPos+i);
+	}
+
+	private static final class Heap extends IntArray {
+		private final int[] array;
+
+		Heap(int[] array){
+			this.array = array;
+		}
+
+		public int get(int i){
+			return array[i];
+		}
+
+		public void set(int i, int value){
+			array[i] = value;
+		}
+
+		public int length(){
+			return array.length;
+		}
+
+		public boolean isDirect(){
+			return false;
+		}
+
+		public IntArray copyOf(int newLength){
+			return new Heap(Arrays.copyOf(array, newLength));
+		}
+
+		public void copyTo(int srcPos, int[] dest, int destPos, int length){
+			System.arraycopy(array, srcPos, dest, destPos, length);
+		}
+	}
+
+	private static final class Direct extends IntArray {
+		private final IntBuffer buffer;
+
+		Direct(IntBuffer buffer){
+			this.buffer = buffer;
+		}
+
+		public int get(int i){
+			return buffer.get(i);
+		}
+
+		public void set(int i, int value){
+			buffer.put(i, value);
+		}
+
+		public int length(){
+			return buffer.capacity();
+		}
+
+		public boolean isDirect(){
+			return true;
+		}
+
+		public void copyTo(int srcPos, int[] dest, int destPos, int length){
+			IntBuffer view = buffer.duplicate();
+			view.position(srcPos);
+			view.get(dest, destPos, length);
+		}
+	}
+}
@@ -0,0 +1,119 @@
+import java.util.Arrays;
+
+
+/**
+ * A growable list of primitive ints, used where an ArrayList<Integer> would box every element
+ * (e.g. leaf positions collected during searching, node ids of the flat suffix tree)
+ * */
+public class IntList {
+	private int[] data;
+	private int size;
+
+	/**
+	 * constructor
+	 * */
+	public IntList(){
+		this(16);
+	}
+
+	/**
+	 * constructor
+	 * @param capacity
+	 * 			initial capacity
+	 * */
+	public IntList(int capacity){
+		data = new int[Math.max(capacity, 1)];
+		size = 0;
+	}
+
+	/**
+	 * appends a value to the end of the list
+	 * @param value
+	 * 			the value to be added
+	 * */
+	public void add(int value){
+		if (size == data.length)
+			data = Arrays.copyOf(data, data.length + (data.length>>1) + 1);
+		data[size++] = value;
+	}
+
+	/**
+	 * removes the last element of the list
+	 * @return the removed element
+	 * */
+	public int removeLast(){
+		return data[--size];
+	}
+
+	/**
+	 * gets the element at a given position
+	 * @param index
+	 * 			the given position
+	 * @return the element
+	 * */
+	public int get(int index){
+		return data[index];
+	}
+
+	/**
+	 * sets the element at a given position
+	 * @param index
+	 * 			the given position
+	 * @param value
+	 * 			the value to be set
+	 * */
+	public void set(int index, int value){
+		data[index] = value;
+	}
+
+	/**
+	 * gets the number of elements in the list
+	 * @return the number of elements
+	 * */
+	public int size(){
+		return size;
+	}
+
+	public boolean isEmpty(){
+		return size == 0;
+	}
+
+	public void clear(){
+		size = 0;
+	}
+
+	/**
+	 * removes the elements from a given position to the end of the list
+	 * @param newSize
+	 * 			the number of elements kept
+	 * */
+	public void truncate(int newSize){
+		size = newSize;
+	}
+
+	/**
+	 * sorts the list in increasing order and removes duplicated elements
+	 * */
+	public void sortAndRemoveDuplicates(){
+		if (size <= 1)
+			return;
+		Arrays.sort(data, 0, size);
+		int k = 1;
+		for (int i=1; i<size; i++)
+			if (data[i] != data[k-1])
+				data[k++] = data[i];
+		size = k;
+	}
+
+	/**
+	 * gets a copy of the elements as an array
+	 * @return the elements of the list
+	 * */
+	public int[] toArray(){
+		return Arrays.copyOf(data, size);
+	}
+
+	public String toString(){
+		return Arrays.toString(toArray());
+	}
+}
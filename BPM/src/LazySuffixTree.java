@@ -0,0 +1,200 @@
+import java.util.Arrays;
+
+
+/**
+ * A suffix tree of the combined sequence built top-down and lazily ("write only, top down"): a node is only
+ * expanded into its children the first time a search descends below it, the expanded nodes are kept for the
+ * later searches. Building the tree therefore costs nothing up front and the total work is proportional to
+ * the parts of the tree the searches visit.
+ *
+ * The suffixes are kept in an array that is sorted piecewise as the nodes are expanded. Each node owns the
+ * range [begin, end) of that array holding the suffixes below it, so the leaves of a node are known without
+ * expanding it; depth is the length of the prefix shared by those suffixes. A node with a single suffix is a
+ * leaf, its depth reaches the end of the text. The children of a node are created together, they get consecutive
+ * ids [firstChild, firstChild+numChildren) and are ordered by their first character.
+ *
+ * The tree is changed by the searches, it can only be searched by one thread at a time.
+ * */
+public class LazySuffixTree {
+	public static final int ROOT = 0;
+	private static final int UNEXPANDED = -1;
+	private static final int NUM_CODES = 23;//see PackedText.encode()
+
+	private byte[] codes;//the text, each character replaced by its code
+	private int[] suffixes;
+	private int[] buffer;//used to sort the suffixes of a node
+	private int[] count;
+
+	//nodes, indexed by node id
+	private IntList begin;
+	private IntList end;
+	private IntList depth;
+	private IntList firstChild;
+	private IntList numChildren;
+	private int numExpanded;
+
+	/**
+	 * constructor, creates the root; the rest of the tree is built by the searches
+	 * @param text
+	 * 			the combined sequence, see ProteinDatabase.getSequence()
+	 * */
+	public LazySuffixTree(String text){
+		int n = text.length();
+		suffixes = new int[n];
+		codes = new byte[n];
+		for (int i=0; i<n; i++){
+			suffixes[i] = i;
+			codes[i] = (byte) PackedText.encode(text.charAt(i));
+		}
+		begin = new IntList();
+		end = new IntList();
+		depth = new IntList();
+		firstChild = new IntList();
+		numChildren = new IntList();
+		count = new int[NUM_CODES+1];
+		newNode(0, n, 0);
+	}
+
+	private int newNode(int first, int last, int nodeDepth){
+		begin.add(first);
+		end.add(last);
+		depth.add(nodeDepth);
+		firstChild.add(UNEXPANDED);
+		numChildren.add(0);
+		return begin.size()-1;
+	}
+
+	/**
+	 * expands a node: sorts its suffixes by their next character and creates a child for each group,
+	 * extended to the prefix shared by the suffixes of the group
+	 * */
+	private void expand(int node){
+		int first = begin.get(node), last = end.get(node), d = depth.get(node);
+		if (buffer == null || buffer.length < last-first)
+			buffer = new int[Math.max(last-first, 16)];
+		//counting sort of the suffixes by the character at depth d
+		Arrays.fill(count, 0);
+		for (int i=first; i<last; i++)
+			count[codes[suffixes[i]+d]+1]++;
+		for (int c=0; c<NUM_CODES; c++)
+			count[c+1] += count[c];
+		for (int i=first; i<last; i++)
+			buffer[count[codes[suffixes[i]+d]]++] = suffixes[i];
+		System.arraycopy(buffer, 0, suffixes, first, last-first);
+
+		int child = begin.size(), children = 0;
+		for (int groupBegin=first; groupBegin<last; ){
+			int code = codes[suffixes[groupBegin]+d];
+			int groupEnd = groupBegin+1;
+			while (groupEnd < last && codes[suffixes[groupEnd]+d] == code)
+				groupEnd++;
+			int childDepth;
+			if (groupEnd - groupBegin == 1)
+				childDepth = codes.length - suffixes[groupBegin];
+			else {
+				childDepth = d+1;
+				while (sharesCharacter(groupBegin, groupEnd, childDepth))
+					childDepth++;
+			}
+			newNode(groupBegin, groupEnd, childDepth);
+			children++;
+			groupBegin = groupEnd;
+		}
+		firstChild.set(node, child);
+		numChildren.set(node, children);
+		numExpanded++;
+	}
+
+	/**
+	 * test if the suffixes in [first, last) have the same character at a depth
+	 * */
+	private boolean sharesCharacter(int first, int last, int d){
+		if (suffixes[first]+d >= codes.length)
+			return false;
+		int code = codes[suffixes[first]+d];
+		for (int i=first+1; i<last; i++)
+			if (suffixes[i]+d >= codes.length || codes[suffixes[i]+d] != code)
+				return false;
+		return true;
+	}
+
+	/**
+	 * find the child of a node whose edge starts with the given character, the node is expanded if needed
+	 * @param code
+	 * 			the code of the character, see PackedText.encode()
+	 * @return the child, -1 if not found
+	 * */
+	public int findChild(int node, int code){
+		if (isLeaf(node))
+			return -1;
+		if (firstChild.get(node) == UNEXPANDED)
+			expand(node);
+		int d = depth.get(node);
+		int child = firstChild.get(node);
+		for (int k=0; k<numChildren.get(node); k++, child++){
+			int childCode = codes[suffixes[begin.get(child)]+d];
+			if (childCode == code)
+				return child;
+			if (childCode > code)
+				break;
+		}
+		return -1;
+	}
+
+	/**
+	 * gets the code of the character at a depth of the path to a node
+	 * @param depth
+	 * 			smaller than getDepth(node)
+	 * */
+	public int codeAt(int node, int depth){
+		return codes[suffixes[begin.get(node)]+depth];
+	}
+
+	/**
+	 * test if a node holds a single suffix
+	 * */
+	public boolean isLeaf(int node){
+		return end.get(node) - begin.get(node) == 1;
+	}
+
+	public int getDepth(int node){
+		return depth.get(node);
+	}
+
+	/**
+	 * gets the first suffix of a node in the suffix array
+	 * */
+	public int getBegin(int node){
+		return begin.get(node);
+	}
+
+	/**
+	 * gets the end (exclusive) of the suffixes of a node in the suffix array
+	 * */
+	public int getEnd(int node){
+		return end.get(node);
+	}
+
+	/**
+	 * gets the start position of a suffix in the text
+	 * @param i
+	 * 			the index of the suffix in the suffix array
+	 * */
+	public int getSuffix(int i){
+		return suffixes[i];
+	}
+
+	/**
+	 * gets the number of nodes created so far (including the leaves)
+	 * */
+	public int getNodeCount(){
+		return begin.size();
+	}
+
+	/**
+	 * gets the number of nodes expanded so far
+	 * */
+	public int getNumExpanded(){
+		return numExpanded;
+	}
+}
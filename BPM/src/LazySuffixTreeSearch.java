@@ -0,0 +1,157 @@
+import java.util.Iterator;
+
+
+/**
+ * Searches patterns against a lazy suffix tree, answering the same queries as PatternSearch. The nodes the search
+ * descends into are expanded by the tree on the way. A matched position is a node together with the number of
+ * characters matched so far (at most the depth of the node); the lists of matched positions store these two
+ * numbers per entry.
+ * */
+public class LazySuffixTreeSearch implements IndexSearch {
+	private LazySuffixTree tree;
+	private LeafPeptideTable leafTable;
+	private MassTable massTable;
+	private PeptideFileHandler pf;
+	private IntList list1;
+	private IntList list2;
+	private int scaledErrorTolerance;
+
+	/**
+	 * constructor
+	 * @param tree lazy suffix tree
+	 * @param leafTable peptide information of each suffix
+	 * @param mt mass table
+	 * */
+	public LazySuffixTreeSearch(LazySuffixTree tree, LeafPeptideTable leafTable, MassTable mt, PeptideFileHandler pf){
+		this.tree = tree;
+		this.leafTable = leafTable;
+		massTable = mt;
+		this.pf = pf;
+		list1 = new IntList();
+		list2 = new IntList();
+		scaledErrorTolerance = (int)Math.round(PatternSearch.errorTolerance*massTable.getScaleFactor());
+	}
+
+	public IntList searchLeafPositions(Pattern pattern, int scanNum){
+		if (pattern.length() <= 0)
+			return null;
+		list1.clear();
+		list1.add(LazySuffixTree.ROOT);
+		list1.add(0);
+		for (int i=0; i<pattern.length(); i++){
+			searchPattern(pattern.get(i));
+			//no match found
+			if (list2.size() == 0)
+				return null;
+			//swap list1 and list2
+			IntList tmpList = list1;
+			list1 = list2;
+			list2 = tmpList;
+			list2.clear();
+		}
+
+		IntList leafSet = new IntList();
+		collectLeaves(list1, pf.getMassValue(scanNum), leafSet);
+		list1.clear();
+		return leafSet;
+	}
+
+	public IntList searchLeafPositions(PatternTrie trie, int scanNum){
+		IntList saved1 = list1, saved2 = list2;
+		IntList root = new IntList();
+		root.add(LazySuffixTree.ROOT);
+		root.add(0);
+		IntList leafSet = new IntList();
+		matchTrie(trie, PatternTrie.ROOT, root, pf.getMassValue(scanNum), leafSet);
+		list1 = saved1;
+		list2 = saved2;
+		return leafSet;
+	}
+
+	/**
+	 * matches the masses of the children of a trie node from the positions matched by the node, and the leaves
+	 * of the positions matched by a complete pattern are collected
+	 * @param matched
+	 * 			the positions matched by the path to the node
+	 * */
+	private void matchTrie(PatternTrie trie, int node, IntList matched, int refMass, IntList leafSet){
+		for (int child=trie.getFirstChild(node); child!=PatternTrie.NIL; child=trie.getNextSibling(child)){
+			list1 = matched;
+			list2 = new IntList();
+			searchPattern(trie.getMass(child));
+			IntList next = list2;
+			if (next.size() == 0)
+				continue;
+			if (trie.endsPattern(child))
+				collectLeaves(next, refMass, leafSet);
+			matchTrie(trie, child, next, refMass, leafSet);
+		}
+	}
+
+	/**
+	 * collects the suffixes of matched positions whose peptide mass is within the result error tolerance,
+	 * the leaves of a node are its suffixes, they are found without expanding it
+	 * */
+	private void collectLeaves(IntList matched, int refMass, IntList leafSet){
+		for (int k=0; k<matched.size(); k+=2){
+			int node = matched.get(k);
+			int end = tree.getEnd(node);
+			for (int i=tree.getBegin(node); i<end; i++){
+				int pos = tree.getSuffix(i);
+				if (leafTable.inErrorTolerance(pos, refMass))
+					leafSet.add(pos);
+			}
+		}
+	}
+
+	/**
+	 * extends every matched position in list1 with the strings of a given mass, the results are stored in list2
+	 * @param mass
+	 * 			a given integer value
+	 * */
+	public void searchPattern(int mass){
+		for (int i=-scaledErrorTolerance; i<=scaledErrorTolerance; i++){
+			if ((mass+i)<=0 || (mass+i)>massTable.getMaxSize())
+				continue;
+			Iterator<?> ite = massTable.getMassString(mass+i);
+			while (ite.hasNext()){
+				String str = (String) ite.next();
+				for (int k=0; k<list1.size(); k+=2)
+					searchPattern(str, list1.get(k), list1.get(k+1));
+			}
+		}
+	}
+
+	/**
+	 * search a particular string from a matched position, the new position is added to list2 if matched
+	 * @param str
+	 * 			the string to be searched
+	 * @param node
+	 * 			the node the matched position leads to
+	 * @param length
+	 * 			the number of characters matched so far
+	 * */
+	private void searchPattern(String str, int node, int length){
+		for (int i=0; i<str.length(); i++){
+			int code = PackedText.encode(str.charAt(i));
+			if (length < tree.getDepth(node)){
+				if (tree.codeAt(node, length) != code)
+					return;
+			}
+			else {
+				node = tree.findChild(node, code);
+				if (node < 0)
+					return;
+			}
+			length++;
+		}
+		list2.add(node);
+		list2.add(length);
+	}
+
+	/**
+	 * nothing to reset, the matched positions do not outlive a pattern
+	 * */
+	public void startScan(){
+	}
+}
@@ -3,8 +3,7 @@ public class LeafEdge extends Edge{
 	
 	 private int leafIndex = -1;
 	 private int seqNum = -1;
-	 private int peptideMass = 0;
-	 private String pepString;
+	 private int peptideId = -1;//see PeptideDictionary
 	 
 	
 	public LeafEdge(int beginIndex, int endIndex, Node startNode) {
@@ -57,24 +56,36 @@ public class LeafEdge extends Edge{
 		return new SuffixPosition(seqNum, leafIndex);
 	}
 	
-	public void setPeptideMass(int mass){
-		peptideMass = mass;
+	/**
+	 * sets the peptide the suffix of the leaf starts in
+	 * @param id
+	 * 			the peptide id in the peptide dictionary of the protein database
+	 * */
+	public void setPeptideId(int id){
+		peptideId = id;
 	}
 	
-	public int getPeptideMass(){
-		return peptideMass;
+	public int getPeptideId(){
+		return peptideId;
 	}
 	
-	public void setPeptideSequence(String str){
-		pepString = str;
+	public int getPeptideMass(){
+		return getPeptideDictionary().getPeptideMass(peptideId);
 	}
 	
+	/**
+	 * gets the peptide sequence, created on each call
+	 * */
 	public String getPepString(){
-		return pepString;
+		return getPeptideDictionary().getPeptide(peptideId);
+	}
+	
+	private PeptideDictionary getPeptideDictionary(){
+		return startNode.getSuffixTree().getProteinDatabase().getPeptideDictionary();
 	}
 	
 	public boolean inErrorTolerance(int refMass){
-		if (Math.abs(peptideMass-refMass) <= DoSearch2.getScaledMassTolerance())
+		if (Math.abs(getPeptideMass()-refMass) <= DoSearch2.getScaledMassTolerance())
 			return true;
 		return false;
 	}
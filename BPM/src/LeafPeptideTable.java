@@ -0,0 +1,279 @@
+import java.util.BitSet;
+
+
+/**
+ * Leaf payloads of an index over the combined sequence of a protein database, indexed by leaf.
+ * Leaf k is the suffix starting at text position getPosition(k); this is k itself unless the index only keeps
+ * a subset of the suffixes (sparse index), in which case the positions of the leaves are stored in ascending order.
+ * The leaf belongs to sequence getSeqNum(k) at offset getLeafIndex(k), and carries the id of its peptide
+ * in the peptide dictionary of the database, which holds the peptide string and mass.
+ * The per-leaf arrays are IntArrays, so the table can be moved off-heap with the index. An index that needs the
+ * peptide of few leaves (the FM-index) may do without the per-leaf array, the peptide of a leaf is then looked up
+ * in the peptide dictionary from its position, see LeafPeptideTable(ProteinDatabase, boolean).
+ * The leaves of removed sequences are marked in a bit set and never match, see removeSequence().
+ * */
+public class LeafPeptideTable {
+	private ProteinDatabase database;
+	private int[] seqStart;//seqStart[i]: position of the first character of sequence-i in the text
+	private IntArray leafPosition;//null if every position of the text is a leaf
+	private IntArray peptideId;//null if the peptides are looked up in the peptide dictionary
+	private int size;
+	private boolean uniquePeptides;
+	private BitSet removed;//null if no sequence has been removed
+
+	/**
+	 * constructor, one leaf for each position of the text
+	 * @param database
+	 * 			the protein database, its combined sequence determines the positions
+	 * */
+	public LeafPeptideTable(ProteinDatabase database){
+		this(database, true);
+	}
+
+	/**
+	 * constructor, one leaf for each position of the text
+	 * @param database
+	 * 			the protein database, its combined sequence determines the positions
+	 * @param storePeptideIds
+	 * 			false to look the peptide of a leaf up in the peptide dictionary instead of storing it, which saves
+	 * 			an int per position but costs two binary searches per lookup
+	 * */
+	public LeafPeptideTable(ProteinDatabase database, boolean storePeptideIds){
+		this(database, database.getSequence().length(), storePeptideIds);
+	}
+
+	/**
+	 * constructor, for a sparse index
+	 * @param database
+	 * 			the protein database
+	 * @param leafPosition
+	 * 			the text positions of the leaves in ascending order
+	 * */
+	public LeafPeptideTable(ProteinDatabase database, IntArray leafPosition){
+		this(database, leafPosition.length(), true);
+		this.leafPosition = leafPosition;
+	}
+
+	private LeafPeptideTable(ProteinDatabase database, int size, boolean storePeptideIds){
+		this.database = database;
+		this.size = size;
+		initSeqStart();
+		if (storePeptideIds)
+			peptideId = IntArray.allocate(size);
+	}
+
+	/**
+	 * constructor, restores a table saved by IndexFileHandler
+	 * @param database
+	 * 			the protein database
+	 * @param arrays
+	 * 			the arrays of the table, in the order given by getArrays()
+	 * @param leafPosition
+	 * 			the text positions of the leaves, null if every position is a leaf
+	 * @param uniquePeptides
+	 * 			see setUniquePeptides()
+	 * */
+	LeafPeptideTable(ProteinDatabase database, IntArray[] arrays, IntArray leafPosition, boolean uniquePeptides){
+		this.database = database;
+		initSeqStart();
+		peptideId = arrays[0];
+		size = peptideId.length();
+		this.leafPosition = leafPosition;
+		this.uniquePeptides = uniquePeptides;
+	}
+
+	private void initSeqStart(){
+		int numSeq = database.size();
+		seqStart = new int[numSeq];
+		int pos = 0;
+		for (int i=0; i<numSeq; i++){
+			seqStart[i] = pos;
+			pos += database.getSeqLength(i) + 1;//one separator after each sequence
+		}
+	}
+
+	/**
+	 * gets the arrays of the table, used to save the table to disk
+	 * @return peptideId, indexed by leaf
+	 * */
+	IntArray[] getArrays(){
+		return new IntArray[]{peptideId};
+	}
+
+	/**
+	 * gets the text positions of the leaves
+	 * @return the positions in ascending order, null if every position of the text is a leaf
+	 * */
+	IntArray getLeafPositions(){
+		return leafPosition;
+	}
+
+	/**
+	 * marks that the leaves only cover the first occurrence of each distinct peptide, the searches then report
+	 * the matched occurrences by text position, see UniquePeptideSearch
+	 * */
+	public void setUniquePeptides(boolean uniquePeptides){
+		this.uniquePeptides = uniquePeptides;
+	}
+
+	public boolean hasUniquePeptides(){
+		return uniquePeptides;
+	}
+
+	public PeptideDictionary getPeptideDictionary(){
+		return database.getPeptideDictionary();
+	}
+
+	/**
+	 * moves the per-leaf arrays to off-heap memory
+	 * */
+	public void moveOffHeap(){
+		if (peptideId != null)
+			peptideId = peptideId.toDirect();
+		if (leafPosition != null)
+			leafPosition = leafPosition.toDirect();
+	}
+
+	/**
+	 * gets the number of leaves
+	 * */
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * gets the start position of the suffix of a leaf
+	 * */
+	public int getPosition(int leaf){
+		return leafPosition == null ? leaf : leafPosition.get(leaf);
+	}
+
+	/**
+	 * gets the sequence a leaf belongs to
+	 * @param leaf
+	 * 			the leaf
+	 * @return the sequence number, starts from 0
+	 * */
+	public int getSeqNum(int leaf){
+		return getSeqNumAt(getPosition(leaf));
+	}
+
+	/**
+	 * gets the sequence a text position belongs to, the separator after a sequence belongs to it
+	 * */
+	public int getSeqNumAt(int pos){
+		int low = 0, high = seqStart.length-1;
+		while (low < high){
+			int middle = (low+high+1)>>>1;
+			if (seqStart[middle] <= pos)
+				low = middle;
+			else
+				high = middle - 1;
+		}
+		return low;
+	}
+
+	/**
+	 * gets the text position of the first character of a sequence
+	 * */
+	public int getSeqStart(int seqNum){
+		return seqStart[seqNum];
+	}
+
+	/**
+	 * gets the offset of a leaf in its sequence
+	 * @param leaf
+	 * 			the leaf
+	 * @return the offset in the sequence, starts from 0
+	 * */
+	public int getLeafIndex(int leaf){
+		return getPosition(leaf) - seqStart[getSeqNum(leaf)];
+	}
+
+	public SuffixPosition getSuffixPosition(int leaf){
+		int seqNum = getSeqNum(leaf);
+		return new SuffixPosition(seqNum, getPosition(leaf) - seqStart[seqNum]);
+	}
+
+	/**
+	 * sets the peptide a leaf belongs to
+	 * @param leaf
+	 * 			the leaf
+	 * @param id
+	 * 			the id of the peptide in the peptide dictionary
+	 * */
+	public void setPeptide(int leaf, int id){
+		if (peptideId == null)
+			throw new IllegalStateException("the peptides of the leaves are looked up in the peptide dictionary");
+		peptideId.set(leaf, id);
+	}
+
+	public int getPeptideId(int leaf){
+		if (peptideId != null)
+			return peptideId.get(leaf);
+		int pos = getPosition(leaf);
+		int seqNum = getSeqNumAt(pos);
+		return database.getPeptideDictionary().getPeptideId(seqNum, pos - seqStart[seqNum]);
+	}
+
+	public int getPeptideMass(int leaf){
+		return database.getPeptideDictionary().getPeptideMass(getPeptideId(leaf));
+	}
+
+	/**
+	 * gets the peptide sequence of a leaf
+	 * */
+	public String getPepString(int leaf){
+		return database.getPeptideDictionary().getPeptide(getPeptideId(leaf));
+	}
+
+	public boolean inErrorTolerance(int leaf, int refMass){
+		if (removed != null && removed.get(leaf))
+			return false;
+		return Math.abs(getPeptideMass(leaf)-refMass) <= DoSearch2.getScaledMassTolerance();
+	}
+
+	/**
+	 * removes a sequence from the search results by marking its leaves, the index itself is not changed
+	 * @param seqNum
+	 * 			the sequence
+	 * @return the number of leaves marked
+	 * */
+	public int removeSequence(int seqNum){
+		if (removed == null)
+			removed = new BitSet(size());
+		int first = findLeaf(seqStart[seqNum]);
+		int end = findLeaf(seqStart[seqNum] + database.getSeqLength(seqNum) + 1);//including the separator
+		removed.set(first, end);
+		return end - first;
+	}
+
+	public boolean isRemoved(int leaf){
+		return removed != null && removed.get(leaf);
+	}
+
+	/**
+	 * test if the leaves of any sequence have been removed
+	 * */
+	public boolean hasRemovedLeaves(){
+		return removed != null;
+	}
+
+	/**
+	 * finds the first leaf whose position is not smaller than a text position
+	 * @return the leaf, size() if there is none
+	 * */
+	public int findLeaf(int pos){
+		if (leafPosition == null)
+			return Math.min(pos, size());
+		int low = 0, high = size();
+		while (low < high){
+			int middle = (low+high)>>>1;
+			if (leafPosition.get(middle) < pos)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+}
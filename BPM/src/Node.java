@@ -7,15 +7,19 @@ import java.util.Collection;
 /**
  * Each node contains several attributes: 
  * @attribute suffixNode: a suffix node from it
- * @edges: a set of edges starting from it
+ * @edges: a set of edges starting from it, stored densely in the order of their first character;
+ * 			bit i of edgeMask is set if an edge starting with the i-th character (see getCharacterIndex) exists,
+ * 			so the edge is found at edges[bitCount(edgeMask & ((1<<i)-1))]
  * @name: label
  * @leafIndex: -1 for non-leaf; y if it is a leaf for suffix [y...n]
  * */
 public class Node {
     private SuffixTree suffixTree;
     private Node suffixNode = null;
-    private Edge edges[] = null;
-    private boolean visited = false;
+    private static final Edge[] NO_EDGES = new Edge[0];
+    private int edgeMask = 0;
+    private Edge edges[] = NO_EDGES;
+    private int id;//see SuffixTree.newNodeId()
     private int minPeptideMass = 0;
     private int maxPeptideMass = 0;
 
@@ -40,9 +44,7 @@ public class Node {
     public Node(SuffixTree suffixTree, Node suffixNode) {
         this.suffixTree = suffixTree;
         this.suffixNode = suffixNode;
-        edges = new Edge[21];
-        for (int i=0; i<21; i++)
-        	edges[i] = null;
+        id = suffixTree.newNodeId();
     }
 
     /**
@@ -53,6 +55,7 @@ public class Node {
     public Node(Node node){
     	this.suffixTree = node.suffixTree;
     	this.suffixNode = null;
+    	id = suffixTree.newNodeId();
     }
     
     /**
@@ -61,7 +64,7 @@ public class Node {
      * 			indicated position
      * */
     public char charAt(int index) {
-        return suffixTree.getText().charAt(index);
+        return suffixTree.charAt(index);
     }
 
     /**
@@ -72,7 +75,31 @@ public class Node {
      * @note: all the edges out from a node start with a different character 
      * */
     public void addEdge(int charIndex, Edge edge) {
-    	edges[getCharacterIndex(charAt(charIndex))] = edge;
+    	if (replaceEdge(charIndex, edge))
+    		return;
+    	int bit = 1 << getCharacterIndex(charAt(charIndex));
+    	int rank = Integer.bitCount(edgeMask & (bit-1));
+    	Edge[] newEdges = new Edge[edges.length+1];
+    	System.arraycopy(edges, 0, newEdges, 0, rank);
+    	System.arraycopy(edges, rank, newEdges, rank+1, edges.length-rank);
+    	newEdges[rank] = edge;
+    	edges = newEdges;
+    	edgeMask |= bit;
+    }
+
+    /**
+     * replace the edge starting with a given character by another edge starting with the same character,
+     * the edge is overwritten in place, the edge array is not reallocated
+     * @param charIndex: the index of a (typically, first) character
+     * @param edge: the new edge
+     * @return false if the node has no edge starting with the character, nothing is changed then
+     * */
+    public boolean replaceEdge(int charIndex, Edge edge) {
+    	int bit = 1 << getCharacterIndex(charAt(charIndex));
+    	if ((edgeMask & bit) == 0)
+    		return false;
+    	edges[Integer.bitCount(edgeMask & (bit-1))] = edge;
+    	return true;
     }
 
     /**
@@ -81,17 +108,24 @@ public class Node {
      * @note: all the edges out from a node start with a different character 
      * */
     public void removeEdge(int charIndex) {
-    	edges[getCharacterIndex(charAt(charIndex))] = null;
+    	removeEdge(charAt(charIndex));
     }
     
     public void removeEdge(char ch){
-    	edges[getCharacterIndex(ch)] = null;
+    	int bit = 1 << getCharacterIndex(ch);
+    	if ((edgeMask & bit) == 0)
+    		return;
+    	int rank = Integer.bitCount(edgeMask & (bit-1));
+    	Edge[] newEdges = edges.length == 1 ? NO_EDGES : new Edge[edges.length-1];
+    	System.arraycopy(edges, 0, newEdges, 0, rank);
+    	System.arraycopy(edges, rank+1, newEdges, rank, edges.length-rank-1);
+    	edges = newEdges;
+    	edgeMask &= ~bit;
     }
     
     public void removeAll(){
-    	for (int i=0; i<21; i++)
-    		edges[i] = null;
-    	edges = null;
+    	edges = NO_EDGES;
+    	edgeMask = 0;
     }
 
     /**
@@ -101,7 +135,10 @@ public class Node {
      * @return the edge
      * */
     public Edge findEdge(char ch) {
-    	return edges[getCharacterIndex(ch)];
+    	int bit = 1 << getCharacterIndex(ch);
+    	if ((edgeMask & bit) == 0)
+    		return null;
+    	return edges[Integer.bitCount(edgeMask & (bit-1))];
     }
     
     /**
@@ -116,7 +153,29 @@ public class Node {
     		System.exit(0);
     	}
     	
-    	return edges[index];
+    	int bit = 1 << index;
+    	if ((edgeMask & bit) == 0)
+    		return null;
+    	return edges[Integer.bitCount(edgeMask & (bit-1))];
+    }
+    
+    /**
+     * get the number of edges out from the node
+     * @return the number of edges
+     * */
+    public int getNumEdges(){
+    	return edges.length;
+    }
+    
+    /**
+     * get the k-th existing edge out from the node, used to visit all the edges without
+     * probing the characters that have no edge
+     * @param k
+     * 			ranges from 0 to getNumEdges()-1, edges are ordered by their first character
+     * @return the required edge
+     * */
+    public Edge getEdgeAt(int k){
+    	return edges[k];
     }
 
     /**
@@ -169,12 +228,11 @@ public class Node {
     }
     
     
-    public void setVisitStatus(boolean boolvalue){
-    	visited = boolvalue;
-    }
-    
-    public boolean getVisitStatus(){
-    	return visited;
+    /**
+     * gets the id of the node, unique within its suffix tree and smaller than SuffixTree.getNumNodes()
+     * */
+    public int getId(){
+    	return id;
     }
     
     public void setMinPeptideMass(int mass){
@@ -0,0 +1,375 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ * Builds a FlatSuffixTree with several threads, as an alternative to the sequential Ukkonen construction.
+ *
+ * The suffixes are sorted by the suffix array of the text, built by SA-IS, and the common prefix lengths of
+ * neighbouring suffixes are taken from its LCP array (Kasai), both in linear time whatever the repeats of the
+ * database. The sorted suffixes are partitioned by their first two characters (character codes of SuffixArray);
+ * the sub-tree of each partition is built from its suffixes and their common prefix lengths, one task per
+ * partition on a thread pool, and finally the sub-trees are grafted under the root, below a node of depth one
+ * for the first characters shared by several partitions.
+ *
+ * The resulting tree has the same nodes and leaves as the one built by Ukkonen's algorithm, only the node ids and
+ * the order of the children differ, and no suffix links are kept (they are not used after construction).
+ *
+ * The same construction builds a sparse tree when only some of the suffixes are given, e.g. the suffixes starting
+ * at peptide boundaries; its leaves are numbered in the order of their positions (see LeafPeptideTable). The
+ * suffix array is then filtered to the given suffixes, the common prefix length of two of them being the minimum
+ * of the LCP array between them.
+ * */
+public class ParallelSuffixTreeBuilder {
+	private static final int ALPHABET_SIZE = SuffixArray.ALPHABET_SIZE;
+
+	private int numThreads;
+	private SuffixArray suffixArray;
+	private int n;
+	private int[] leafPosition;//start positions of the suffixes of the leaves, null if every suffix is a leaf
+	private int numLeaves;
+	private int[] suffixes;//the leaves in the order of their suffixes
+	private int[] lcp;//lcp[i]: length of the common prefix of the suffixes of suffixes[i-1] and suffixes[i]
+	private int[] bucketStart;//suffixes of the partition of the characters (c1, c2): [bucketStart[c1*ALPHABET_SIZE+c2], bucketStart[c1*ALPHABET_SIZE+c2+1])
+	private int[] leafNextSibling;
+
+	/**
+	 * constructor
+	 * @param numThreads
+	 * 			the number of threads used to build the tree
+	 * */
+	public ParallelSuffixTreeBuilder(int numThreads){
+		this.numThreads = Math.max(numThreads, 1);
+	}
+
+	/**
+	 * builds the tree for the combined sequence of a protein database
+	 * @param text
+	 * 			the combined sequence, see ProteinDatabase.getSequence(), must end with a single '$'
+	 * @param database
+	 * 			the protein database
+	 * @return the tree, its leaf table is empty
+	 * */
+	public FlatSuffixTree build(String text, ProteinDatabase database){
+		return build(text, database, null);
+	}
+
+	/**
+	 * builds a sparse tree holding the suffixes starting at given positions of the combined sequence
+	 * @param text
+	 * 			the combined sequence, see ProteinDatabase.getSequence(), must end with a single '$'
+	 * @param database
+	 * 			the protein database
+	 * @param leafPosition
+	 * 			the start positions of the suffixes in ascending order, null for all the suffixes
+	 * @return the tree, its leaf table is empty
+	 * */
+	public FlatSuffixTree build(String text, ProteinDatabase database, int[] leafPosition){
+		n = text.length();
+		this.leafPosition = leafPosition;
+		numLeaves = leafPosition == null ? n : leafPosition.length;
+		sortSuffixes(text);
+		partition();
+		leafNextSibling = new int[numLeaves];
+
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			List<Integer> buckets = new ArrayList<Integer>();
+			for (int b=0; b<ALPHABET_SIZE*ALPHABET_SIZE; b++)
+				if (bucketStart[b+1] > bucketStart[b])
+					buckets.add(b);
+			//largest partitions first, so that the threads finish at about the same time
+			Collections.sort(buckets, new Comparator<Integer>(){
+				public int compare(Integer b1, Integer b2){
+					return (bucketStart[b2+1]-bucketStart[b2]) - (bucketStart[b1+1]-bucketStart[b1]);
+				}
+			});
+			final SubTree[] subTrees = new SubTree[ALPHABET_SIZE*ALPHABET_SIZE];
+			List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+			for (final int b : buckets){
+				tasks.add(new Callable<Void>(){
+					public Void call(){
+						subTrees[b] = buildSubTree(b);
+						return null;
+					}
+				});
+			}
+			invokeAll(executor, tasks);
+
+			return graft(text, subTrees, database, executor);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * sorts the leaves by their suffixes and computes the common prefix lengths of neighbouring ones
+	 * */
+	private void sortSuffixes(String text){
+		suffixArray = new SuffixArray(text);
+		if (leafPosition == null){
+			suffixes = suffixArray.getSuffixes();
+			lcp = suffixArray.getLcps();
+			return;
+		}
+		BitSet indexed = new BitSet(n);
+		for (int pos : leafPosition)
+			indexed.set(pos);
+		int[] sa = suffixArray.getSuffixes();
+		int[] saLcp = suffixArray.getLcps();
+		suffixes = new int[numLeaves];
+		lcp = new int[numLeaves];
+		int k = 0;
+		int min = Integer.MAX_VALUE;//smallest lcp since the last indexed suffix
+		for (int i=0; i<n; i++){
+			min = Math.min(min, saLcp[i]);
+			if (indexed.get(sa[i])){
+				suffixes[k] = Arrays.binarySearch(leafPosition, sa[i]);
+				lcp[k] = k == 0 ? 0 : min;
+				k++;
+				min = Integer.MAX_VALUE;
+			}
+		}
+	}
+
+	/**
+	 * finds the partitions of the first two characters in the sorted leaves
+	 * */
+	private void partition(){
+		bucketStart = new int[ALPHABET_SIZE*ALPHABET_SIZE+1];
+		for (int i=0; i<numLeaves; i++)
+			bucketStart[bucketOf(positionOf(suffixes[i]))+1]++;
+		for (int b=0; b<ALPHABET_SIZE*ALPHABET_SIZE; b++)
+			bucketStart[b+1] += bucketStart[b];
+	}
+
+	private int positionOf(int leaf){
+		return leafPosition == null ? leaf : leafPosition[leaf];
+	}
+
+	private int bucketOf(int pos){
+		return suffixArray.codeAt(pos)*ALPHABET_SIZE + (pos+1 < n ? suffixArray.codeAt(pos+1) : 0);
+	}
+
+	/**
+	 * nodes of the sub-tree of the suffixes starting with two given characters, numbered from 1 (0 is a local
+	 * root of depth one whose only child is the top of the sub-tree). Children of the local nodes refer to local
+	 * ids, the next siblings of the leaves are stored in leafNextSibling.
+	 * */
+	private static class SubTree {
+		int firstSuffix;
+		int lastSuffix;
+		IntList edgeBegin = new IntList();
+		IntList depth = new IntList();
+		IntList firstChild = new IntList();
+		IntList nextSibling = new IntList();
+
+		int newNode(int begin, int nodeDepth){
+			edgeBegin.add(begin);
+			depth.add(nodeDepth);
+			firstChild.add(FlatSuffixTree.NIL);
+			nextSibling.add(FlatSuffixTree.NIL);
+			return depth.size() - 1;
+		}
+
+		int size(){
+			return depth.size();
+		}
+	}
+
+	/**
+	 * builds the sub-tree of a partition from its sorted suffixes, keeping the path from the local root to the
+	 * last inserted leaf on a stack
+	 * @param b
+	 * 			the partition, see bucketStart
+	 * */
+	private SubTree buildSubTree(int b){
+		SubTree tree = new SubTree();
+		tree.firstSuffix = bucketStart[b];
+		tree.lastSuffix = bucketStart[b+1];
+		tree.newNode(0, 1);
+		IntList stack = new IntList();
+		stack.add(0);
+		for (int i=tree.firstSuffix; i<tree.lastSuffix; i++){
+			int leaf = suffixes[i];
+			int pos = positionOf(leaf);
+			int commonLength = i > tree.firstSuffix ? lcp[i] : 1;
+
+			int lastPopped = FlatSuffixTree.NIL;
+			while (depthOf(tree, stack.get(stack.size()-1)) > commonLength)
+				lastPopped = stack.removeLast();
+			int top = stack.get(stack.size()-1);
+			int topDepth = tree.depth.get(top);
+			if (topDepth < commonLength){
+				//split the edge to the last popped child, which is the first child of top
+				int node = tree.newNode(pos + topDepth, commonLength);
+				tree.nextSibling.set(node, getNextSibling(tree, lastPopped));
+				tree.firstChild.set(top, node);
+				if (lastPopped >= 0)
+					tree.edgeBegin.set(lastPopped, tree.edgeBegin.get(lastPopped) + commonLength - topDepth);
+				setNextSibling(tree, lastPopped, FlatSuffixTree.NIL);
+				tree.firstChild.set(node, lastPopped);
+				stack.add(node);
+				top = node;
+			}
+			setNextSibling(tree, ~leaf, tree.firstChild.get(top));
+			tree.firstChild.set(top, ~leaf);
+			stack.add(~leaf);
+		}
+		return tree;
+	}
+
+	private int depthOf(SubTree tree, int ref){
+		return ref >= 0 ? tree.depth.get(ref) : n - positionOf(~ref);
+	}
+
+	private int getNextSibling(SubTree tree, int ref){
+		return ref >= 0 ? tree.nextSibling.get(ref) : leafNextSibling[~ref];
+	}
+
+	private void setNextSibling(SubTree tree, int ref, int sibling){
+		if (ref >= 0)
+			tree.nextSibling.set(ref, sibling);
+		else
+			leafNextSibling[~ref] = sibling;
+	}
+
+	/**
+	 * copies the sub-trees into the arrays of the tree and links their tops, under the root if they are the only
+	 * partition of their first character, under a node of depth one for that character otherwise. The node of the
+	 * first character c1 is followed by the nodes of the sub-trees of c1 in the order of their second characters.
+	 * */
+	private FlatSuffixTree graft(String text, final SubTree[] subTrees, ProteinDatabase database, ExecutorService executor){
+		final int[] offset = new int[ALPHABET_SIZE*ALPHABET_SIZE];
+		int[] upperNode = new int[ALPHABET_SIZE];//the node of depth one of each first character, NIL if none
+		int nodeCount = 1;
+		for (int c1=0; c1<ALPHABET_SIZE; c1++){
+			upperNode[c1] = FlatSuffixTree.NIL;
+			if (countPartitions(subTrees, c1) > 1)
+				upperNode[c1] = nodeCount++;
+			for (int b=c1*ALPHABET_SIZE; b<(c1+1)*ALPHABET_SIZE; b++){
+				if (subTrees[b] == null)
+					continue;
+				offset[b] = nodeCount - 1;
+				nodeCount += subTrees[b].size() - 1;
+			}
+		}
+		final int[] edgeBegin = new int[nodeCount];
+		final int[] depth = new int[nodeCount];
+		final int[] suffixLink = new int[nodeCount];
+		final int[] firstChild = new int[nodeCount];
+		final int[] nextSibling = new int[nodeCount];
+		suffixLink[FlatSuffixTree.ROOT] = FlatSuffixTree.NIL;
+		firstChild[FlatSuffixTree.ROOT] = FlatSuffixTree.NIL;
+		nextSibling[FlatSuffixTree.ROOT] = FlatSuffixTree.NIL;
+
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int b=0; b<ALPHABET_SIZE*ALPHABET_SIZE; b++){
+			if (subTrees[b] == null)
+				continue;
+			final SubTree tree = subTrees[b];
+			final int base = offset[b];
+			tasks.add(new Callable<Void>(){
+				public Void call(){
+					for (int x=1; x<tree.size(); x++){
+						edgeBegin[base+x] = tree.edgeBegin.get(x);
+						depth[base+x] = tree.depth.get(x);
+						suffixLink[base+x] = FlatSuffixTree.NIL;
+						firstChild[base+x] = remap(tree.firstChild.get(x), base);
+						nextSibling[base+x] = remap(tree.nextSibling.get(x), base);
+					}
+					for (int i=tree.firstSuffix; i<tree.lastSuffix; i++)
+						leafNextSibling[suffixes[i]] = remap(leafNextSibling[suffixes[i]], base);
+					return null;
+				}
+			});
+		}
+		invokeAll(executor, tasks);
+
+		for (int c1=0; c1<ALPHABET_SIZE; c1++){
+			int parent = upperNode[c1];
+			if (parent != FlatSuffixTree.NIL){
+				edgeBegin[parent] = positionOf(suffixes[bucketStart[c1*ALPHABET_SIZE]]);
+				depth[parent] = 1;
+				suffixLink[parent] = FlatSuffixTree.NIL;
+				firstChild[parent] = FlatSuffixTree.NIL;
+				nextSibling[parent] = firstChild[FlatSuffixTree.ROOT];
+				firstChild[FlatSuffixTree.ROOT] = parent;
+			}
+			for (int b=c1*ALPHABET_SIZE; b<(c1+1)*ALPHABET_SIZE; b++){
+				if (subTrees[b] == null)
+					continue;
+				int top = remap(subTrees[b].firstChild.get(0), offset[b]);
+				int p = parent;
+				if (p == FlatSuffixTree.NIL){
+					//the only partition of c1, its top hangs from the root: its edge starts one character earlier
+					p = FlatSuffixTree.ROOT;
+					if (top >= 0)
+						edgeBegin[top]--;
+				}
+				if (top >= 0)
+					nextSibling[top] = firstChild[p];
+				else
+					leafNextSibling[~top] = firstChild[p];
+				firstChild[p] = top;
+			}
+		}
+
+		IntArray[] arrays = {IntArray.wrap(edgeBegin), IntArray.wrap(depth), IntArray.wrap(suffixLink),
+				IntArray.wrap(firstChild), IntArray.wrap(nextSibling), IntArray.allocate(nodeCount),
+				IntArray.allocate(nodeCount), IntArray.wrap(leafNextSibling)};
+		LeafPeptideTable leafTable;
+		if (leafPosition == null)
+			leafTable = new LeafPeptideTable(database);
+		else
+			leafTable = new LeafPeptideTable(database, IntArray.wrap(leafPosition));
+		suffixArray = null;
+		suffixes = null;
+		lcp = null;
+		leafNextSibling = null;
+		leafPosition = null;
+		return new FlatSuffixTree(ByteArray.fromString(text), arrays, leafTable);
+	}
+
+	/**
+	 * gets the number of partitions of a first character
+	 * */
+	private static int countPartitions(SubTree[] subTrees, int c1){
+		int count = 0;
+		for (int b=c1*ALPHABET_SIZE; b<(c1+1)*ALPHABET_SIZE; b++)
+			if (subTrees[b] != null)
+				count++;
+		return count;
+	}
+
+	/**
+	 * maps a child reference of a sub-tree to the tree, leaves and NIL are unchanged
+	 * */
+	private static int remap(int ref, int base){
+		return ref > 0 ? base + ref : ref;
+	}
+
+	private static void invokeAll(ExecutorService executor, List<Callable<Void>> tasks){
+		try {
+			List<Future<Void>> futures = executor.invokeAll(tasks);
+			for (Future<Void> future : futures)
+				future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+	}
+}
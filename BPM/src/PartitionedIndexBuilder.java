@@ -0,0 +1,581 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+
+/**
+ * Builds the index file of a protein database (see IndexFileHandler) within a memory budget, for databases whose
+ * suffix tree does not fit in memory. The index is the same as the one saved by build-index and is searched with
+ * the index type "mapped".
+ *
+ * The suffixes are partitioned by their prefixes: a trie of prefixes is refined, one scan of the text per level,
+ * until no group holds more suffixes than the budget allows. The groups are processed in the lexicographic order
+ * of their prefixes, as many at a time as fit in the budget: their suffixes are collected by a scan of the text
+ * and sorted (see SuffixSorter), then the sub-tree of each group is built from its sorted suffixes, preprocessed
+ * and appended to temporary files before the next groups are read. The nodes above the groups are the branching
+ * nodes of the trie, they are filled in last.
+ *
+ * Since the suffixes are processed in sorted order, the leaves are written in depth-first order, so the leaf
+ * intervals come for free (see FlatSuffixTree.computeLeafIntervals()). The arrays of the tree, the leaf table and
+ * the wavelet matrix are kept in memory mapped temporary files next to the index file; the memory used is the
+ * protein database, its peptide dictionary and the text codes, plus the budget. No suffix links are kept.
+ * */
+public class PartitionedIndexBuilder {
+	private static final int ALPHABET_SIZE = SuffixArray.ALPHABET_SIZE;
+	private static final int NIL = FlatSuffixTree.NIL;
+	//heap memory used per suffix of the groups being built: its position, mass and sibling, and about one node
+	private static final int BYTES_PER_SUFFIX = 48;
+	//longest prefix of a group, the groups of longer repeats may exceed the budget
+	private static final int MAX_PREFIX_LENGTH = 12;
+	//states of the trie nodes
+	private static final int GROUP = 0;
+	private static final int EXPANDING = 1;
+	private static final int BRANCH = 2;
+
+	private DoSearch2 doSearch;
+	private int maxGroupSize;
+	private File tempDir;
+	private ArrayList<File> tempFiles = new ArrayList<File>();
+
+	private PeptideDictionary dictionary;
+	private byte[] codes;
+	private int n;
+	private int tolerance;
+	private SuffixSorter sorter;
+
+	//trie of prefixes, ALPHABET_SIZE children per node (-1 if none)
+	private IntList trieChild = new IntList();
+	private IntList trieCount = new IntList();
+	private IntList trieDepth = new IntList();
+	private IntList trieState = new IntList();
+
+	//groups, in the lexicographic order of their prefixes; groupLeafBegin has one more entry, the number of leaves
+	private IntList groupTrieNode = new IntList();
+	private IntList groupParent = new IntList();
+	private IntList groupLeafBegin = new IntList();
+	private int numGroupedLeaves;
+	private IntList groupFirstPos = new IntList();
+	private IntList groupMinMass = new IntList();
+	private IntList groupMaxMass = new IntList();
+
+	//upper nodes: the root and the branching nodes of the trie, numbered in depth-first order from 0
+	private IntList upperDepth = new IntList();
+	private IntList upperParent = new IntList();
+	private IntList upperFirstGroup = new IntList();
+	private IntList upperLastGroup = new IntList();
+	private IntList upperFirstChild = new IntList();
+	private IntList upperNextSibling = new IntList();
+
+	//output arrays
+	private IntFile[] nodeFiles;//edgeBegin, depth, firstChild, nextSibling, min, max, leafBegin, leafEnd
+	private IntFile dfsLeafFile;
+	private IntFile dfsLeafMassFile;
+	private IntArray leafNextSibling;
+	private IntArray peptideId;
+	private int nodeCount;
+
+	//sub-tree of the group being built, local node 0 is a root at the depth of the upper parent and the
+	//leaf ~i is the suffix i of the group
+	private IntList localEdgeBegin = new IntList();
+	private IntList localDepth = new IntList();
+	private IntList localFirstChild = new IntList();
+	private IntList localNextSibling = new IntList();
+	private IntList localMin = new IntList();
+	private IntList localMax = new IntList();
+	private IntList localLeafBegin = new IntList();
+	private IntList localLeafEnd = new IntList();
+	private IntList localLeafNextSibling = new IntList();
+	private IntList localLeafMass = new IntList();
+
+	/**
+	 * constructor
+	 * @param doSearch
+	 * 			gives the peptide masses and the mass tolerance
+	 * @param memoryBudget
+	 * 			the memory in bytes used for the groups of suffixes being built
+	 * @param tempDir
+	 * 			directory of the temporary files
+	 * */
+	public PartitionedIndexBuilder(DoSearch2 doSearch, long memoryBudget, File tempDir){
+		this.doSearch = doSearch;
+		maxGroupSize = (int) Math.max(1, Math.min(Integer.MAX_VALUE/2, memoryBudget/BYTES_PER_SUFFIX));
+		this.tempDir = tempDir;
+	}
+
+	/**
+	 * builds the index of a protein database and writes it to a file
+	 * @param database
+	 * 			the protein database, its peptides extracted (see ProteinDatabase.extractPeptideFromSeq2())
+	 * @param indexFile
+	 * 			file name of the index
+	 * @param fingerprint
+	 * 			see IndexFileHandler.computeFingerprint()
+	 * */
+	public void build(ProteinDatabase database, String indexFile, long fingerprint) throws IOException{
+		try {
+			dictionary = database.getPeptideDictionary();
+			dictionary.computePeptideMasses(doSearch);
+			tolerance = DoSearch2.getScaledMassTolerance();
+			String text = database.getSequence();
+			n = text.length();
+			codes = new byte[n];
+			for (int i=0; i<n; i++)
+				codes[i] = (byte) SuffixArray.getCharacterCode(text.charAt(i));
+			sorter = new SuffixSorter(codes, null);
+
+			computePeptideIds(database);
+			partition();
+			collectGroups(0, -1);
+			groupLeafBegin.add(numGroupedLeaves);
+
+			int numUpper = upperDepth.size();
+			nodeFiles = new IntFile[8];
+			for (int k=0; k<nodeFiles.length; k++){
+				nodeFiles[k] = newIntFile();
+				for (int u=0; u<numUpper; u++)
+					nodeFiles[k].add(0);//filled by fillUpperNodes()
+			}
+			nodeCount = numUpper;
+			dfsLeafFile = newIntFile();
+			dfsLeafMassFile = newIntFile();
+			leafNextSibling = allocate(n);
+
+			int numGroups = groupTrieNode.size();
+			for (int g=0; g<numGroups; ){
+				int first = g;
+				while (g < numGroups && (g == first || groupLeafBegin.get(g+1) - groupLeafBegin.get(first) <= maxGroupSize))
+					g++;
+				buildGroups(first, g);
+			}
+
+			IntArray[] nodeArrays = new IntArray[nodeFiles.length];
+			for (int k=0; k<nodeFiles.length; k++)
+				nodeArrays[k] = nodeFiles[k].map();
+			fillUpperNodes(nodeArrays);
+			IntArray dfsLeaf = dfsLeafFile.map();
+			IntArray dfsLeafMass = dfsLeafMassFile.map();
+			IntArray suffixLink = allocate(nodeCount);
+			for (int i=0; i<nodeCount; i++)
+				suffixLink.set(i, NIL);
+
+			int numBits = WaveletMatrix.getNumBits(dfsLeafMass);
+			IntArray values = allocate(n), payloads = allocate(n);
+			for (int i=0; i<n; i++){
+				values.set(i, dfsLeafMass.get(i));
+				payloads.set(i, dfsLeaf.get(i));
+			}
+			WaveletMatrix massIndex = new WaveletMatrix(values, payloads, allocate(n), allocate(n),
+					allocate((int) WaveletMatrix.getLevelsLength(n, numBits)), numBits);
+
+			IntArray[] treeArrays = new IntArray[]{nodeArrays[0], nodeArrays[1], suffixLink, nodeArrays[2], nodeArrays[3],
+					nodeArrays[4], nodeArrays[5], leafNextSibling};
+			IntArray[] intervalArrays = new IntArray[]{nodeArrays[6], nodeArrays[7], dfsLeaf, dfsLeafMass};
+			new IndexFileHandler().writeIndex(indexFile, ByteArray.fromString(database.getSequence()), database, nodeCount,
+					treeArrays, intervalArrays, massIndex, new IntArray[]{peptideId}, null, false, fingerprint);
+		} finally {
+			for (File file : tempFiles)
+				file.delete();
+			tempFiles.clear();
+		}
+	}
+
+	/**
+	 * computes the peptide of every position of the text, the separator after a sequence belongs to its last peptide
+	 * */
+	private void computePeptideIds(ProteinDatabase database) throws IOException{
+		peptideId = allocate(n);
+		int pos = 0;
+		for (int i=0; i<database.size(); i++){
+			int length = database.getSeqLength(i);
+			for (int offset=0; offset<=length; offset++)
+				peptideId.set(pos++, dictionary.getPeptideId(i, offset));
+		}
+	}
+
+	private int newTrieNode(int depth){
+		for (int c=0; c<ALPHABET_SIZE; c++)
+			trieChild.add(-1);
+		trieCount.add(0);
+		trieDepth.add(depth);
+		trieState.add(GROUP);
+		return trieCount.size()-1;
+	}
+
+	/**
+	 * refines the trie of prefixes until every group holds at most maxGroupSize suffixes (or has the longest
+	 * prefix), each round expands the groups that are too large by one character with one scan of the text
+	 * */
+	private void partition(){
+		newTrieNode(0);
+		trieCount.set(0, n);
+		trieState.set(0, EXPANDING);//the root is always expanded, it is an upper node
+		IntList expanding = new IntList();
+		expanding.add(0);
+		while (!expanding.isEmpty()){
+			int firstNew = trieCount.size();
+			for (int pos=0; pos<n; pos++){
+				int node = 0;
+				while (trieState.get(node) != GROUP){
+					int d = trieDepth.get(node);
+					if (pos+d >= n)
+						break;
+					int slot = node*ALPHABET_SIZE + codes[pos+d];
+					if (trieState.get(node) == EXPANDING){
+						if (trieChild.get(slot) < 0)
+							trieChild.set(slot, newTrieNode(d+1));
+						int child = trieChild.get(slot);
+						trieCount.set(child, trieCount.get(child)+1);
+						break;
+					}
+					node = trieChild.get(slot);
+				}
+			}
+			for (int k=0; k<expanding.size(); k++)
+				trieState.set(expanding.get(k), BRANCH);
+			expanding.clear();
+			for (int node=firstNew; node<trieCount.size(); node++){
+				if (trieCount.get(node) > maxGroupSize && trieDepth.get(node) < MAX_PREFIX_LENGTH){
+					trieState.set(node, EXPANDING);
+					expanding.add(node);
+				}
+			}
+		}
+	}
+
+	/**
+	 * numbers the groups in lexicographic order and the upper nodes in depth-first order
+	 * @param node
+	 * 			a trie node
+	 * @param parent
+	 * 			the upper node above it
+	 * */
+	private void collectGroups(int node, int parent){
+		if (trieState.get(node) == GROUP){
+			groupTrieNode.add(node);
+			groupParent.add(parent);
+			groupLeafBegin.add(numGroupedLeaves);
+			numGroupedLeaves += trieCount.get(node);
+			return;
+		}
+		int numChildren = 0;
+		for (int c=0; c<ALPHABET_SIZE; c++)
+			if (trieChild.get(node*ALPHABET_SIZE+c) >= 0)
+				numChildren++;
+		int upper = parent;
+		if (node == 0 || numChildren > 1){
+			upper = upperDepth.size();
+			upperDepth.add(trieDepth.get(node));
+			upperParent.add(parent);
+			upperFirstGroup.add(groupTrieNode.size());
+			upperLastGroup.add(0);
+			upperFirstChild.add(NIL);
+			upperNextSibling.add(NIL);
+		}
+		for (int c=0; c<ALPHABET_SIZE; c++)
+			if (trieChild.get(node*ALPHABET_SIZE+c) >= 0)
+				collectGroups(trieChild.get(node*ALPHABET_SIZE+c), upper);
+		if (upper != parent)
+			upperLastGroup.set(upper, groupTrieNode.size());
+	}
+
+	/**
+	 * gets the group of a suffix
+	 * @param trieGroup
+	 * 			the group of each trie node, -1 for the groups that are not being built
+	 * @return the group, -1 if it is not being built
+	 * */
+	private int groupOf(int pos, int[] trieGroup){
+		int node = 0;
+		while (trieState.get(node) != GROUP){
+			int d = trieDepth.get(node);
+			if (pos+d >= n)
+				return -1;
+			node = trieChild.get(node*ALPHABET_SIZE + codes[pos+d]);
+		}
+		return trieGroup[node];
+	}
+
+	/**
+	 * builds the sub-trees of the groups [first, last) with one scan of the text
+	 * */
+	private void buildGroups(int first, int last) throws IOException{
+		int base = groupLeafBegin.get(first);
+		int[] positions = new int[groupLeafBegin.get(last) - base];
+		int[] trieGroup = new int[trieCount.size()];
+		Arrays.fill(trieGroup, -1);
+		int[] next = new int[last-first];
+		for (int g=first; g<last; g++){
+			trieGroup[groupTrieNode.get(g)] = g;
+			next[g-first] = groupLeafBegin.get(g) - base;
+		}
+		for (int pos=0; pos<n; pos++){
+			int g = groupOf(pos, trieGroup);
+			if (g >= 0)
+				positions[next[g-first]++] = pos;
+		}
+		for (int g=first; g<last; g++){
+			int begin = groupLeafBegin.get(g) - base, end = groupLeafBegin.get(g+1) - base;
+			sorter.sort(positions, begin, end, trieDepth.get(groupTrieNode.get(g)));
+			buildGroup(g, positions, begin, end);
+		}
+	}
+
+	private int newLocalNode(int edgeBegin, int depth, int leafBegin){
+		localEdgeBegin.add(edgeBegin);
+		localDepth.add(depth);
+		localFirstChild.add(NIL);
+		localNextSibling.add(NIL);
+		localMin.add(0);
+		localMax.add(0);
+		localLeafBegin.add(leafBegin);
+		localLeafEnd.add(0);
+		return localDepth.size()-1;
+	}
+
+	private int getLocalNextSibling(int ref){
+		return ref >= 0 ? localNextSibling.get(ref) : localLeafNextSibling.get(~ref);
+	}
+
+	private void setLocalNextSibling(int ref, int sibling){
+		if (ref >= 0)
+			localNextSibling.set(ref, sibling);
+		else
+			localLeafNextSibling.set(~ref, sibling);
+	}
+
+	/**
+	 * computes the mass range and the end of the leaf interval of a local node when its sub-tree is complete
+	 * */
+	private void finishLocalNode(int ref, int leafEnd){
+		if (ref < 0)
+			return;
+		int min = Integer.MAX_VALUE, max = -1;
+		for (int child=localFirstChild.get(ref); child!=NIL; child=getLocalNextSibling(child)){
+			int childMin = child >= 0 ? localMin.get(child) : localLeafMass.get(~child);
+			int childMax = child >= 0 ? localMax.get(child) : localLeafMass.get(~child);
+			min = Math.min(min, childMin);
+			max = Math.max(max, childMax);
+		}
+		localMin.set(ref, min-tolerance);
+		localMax.set(ref, max+tolerance);
+		localLeafEnd.set(ref, leafEnd);
+	}
+
+	/**
+	 * builds the sub-tree of a group from its sorted suffixes, keeping the path from the local root to the last
+	 * inserted leaf on a stack (see ParallelSuffixTreeBuilder), and appends it to the output arrays
+	 * @param positions
+	 * 			the sorted suffixes of the group are positions[begin, end)
+	 * */
+	private void buildGroup(int g, int[] positions, int begin, int end) throws IOException{
+		int m = end - begin;
+		int prefixLength = trieDepth.get(groupTrieNode.get(g));
+		int rootDepth = upperDepth.get(groupParent.get(g));
+		localEdgeBegin.clear();
+		localDepth.clear();
+		localFirstChild.clear();
+		localNextSibling.clear();
+		localMin.clear();
+		localMax.clear();
+		localLeafBegin.clear();
+		localLeafEnd.clear();
+		localLeafNextSibling.clear();
+		localLeafMass.clear();
+		for (int i=0; i<m; i++){
+			localLeafNextSibling.add(NIL);
+			localLeafMass.add(dictionary.getPeptideMass(peptideId.get(positions[begin+i])));
+		}
+
+		newLocalNode(0, rootDepth, 0);
+		IntList stack = new IntList();
+		stack.add(0);
+		for (int i=0; i<m; i++){
+			int pos = positions[begin+i];
+			int lcp = i == 0 ? rootDepth : sorter.commonPrefixLength(positions[begin+i-1], pos, prefixLength);
+			int lastPopped = NIL;
+			while (localDepthOf(stack.get(stack.size()-1), positions, begin) > lcp){
+				lastPopped = stack.removeLast();
+				finishLocalNode(lastPopped, i);
+			}
+			int top = stack.get(stack.size()-1);
+			int topDepth = localDepth.get(top);
+			if (topDepth < lcp){
+				//split the edge to the last popped child, which is the first child of top
+				int node = newLocalNode(pos+topDepth, lcp, lastPopped >= 0 ? localLeafBegin.get(lastPopped) : ~lastPopped);
+				setLocalNextSibling(node, getLocalNextSibling(lastPopped));
+				localFirstChild.set(top, node);
+				if (lastPopped >= 0)
+					localEdgeBegin.set(lastPopped, localEdgeBegin.get(lastPopped) + lcp - topDepth);
+				setLocalNextSibling(lastPopped, NIL);
+				localFirstChild.set(node, lastPopped);
+				stack.add(node);
+				top = node;
+			}
+			setLocalNextSibling(~i, localFirstChild.get(top));
+			localFirstChild.set(top, ~i);
+			stack.add(~i);
+		}
+		while (stack.size() > 1)
+			finishLocalNode(stack.removeLast(), m);
+		appendGroup(g, positions, begin, localFirstChild.get(0));
+	}
+
+	private int localDepthOf(int ref, int[] positions, int begin){
+		return ref >= 0 ? localDepth.get(ref) : n - positions[begin + ~ref];
+	}
+
+	/**
+	 * converts a reference of the local sub-tree to the final node id or leaf
+	 * */
+	private int toGlobal(int ref, int[] positions, int begin, int nodeBase){
+		if (ref == NIL)
+			return NIL;
+		return ref >= 0 ? nodeBase + ref - 1 : ~positions[begin + ~ref];
+	}
+
+	/**
+	 * writes the sub-tree of a group to the output arrays and links its top as first child of the upper parent
+	 * */
+	private void appendGroup(int g, int[] positions, int begin, int top) throws IOException{
+		int nodeBase = nodeCount;
+		int leafBase = groupLeafBegin.get(g);
+		int parent = groupParent.get(g);
+		int sibling = upperFirstChild.get(parent);
+		for (int x=1; x<localDepth.size(); x++){
+			nodeFiles[0].add(localEdgeBegin.get(x));
+			nodeFiles[1].add(localDepth.get(x));
+			nodeFiles[2].add(toGlobal(localFirstChild.get(x), positions, begin, nodeBase));
+			nodeFiles[3].add(x == top ? sibling : toGlobal(localNextSibling.get(x), positions, begin, nodeBase));
+			nodeFiles[4].add(localMin.get(x));
+			nodeFiles[5].add(localMax.get(x));
+			nodeFiles[6].add(leafBase + localLeafBegin.get(x));
+			nodeFiles[7].add(leafBase + localLeafEnd.get(x));
+		}
+		nodeCount += localDepth.size()-1;
+		for (int i=0; i<localLeafMass.size(); i++){
+			int pos = positions[begin+i];
+			leafNextSibling.set(pos, ~i == top ? sibling : toGlobal(localLeafNextSibling.get(i), positions, begin, nodeBase));
+			dfsLeafFile.add(pos);
+			dfsLeafMassFile.add(localLeafMass.get(i));
+		}
+		upperFirstChild.set(parent, toGlobal(top, positions, begin, nodeBase));
+		groupFirstPos.add(positions[begin]);
+		groupMinMass.add(top >= 0 ? localMin.get(top) : localLeafMass.get(0));
+		groupMaxMass.add(top >= 0 ? localMax.get(top) : localLeafMass.get(0));
+	}
+
+	/**
+	 * fills the upper nodes once the groups are built: the children of an upper node have larger ids, so the
+	 * mass ranges are computed in reverse id order
+	 * */
+	private void fillUpperNodes(IntArray[] nodeArrays){
+		int numUpper = upperDepth.size();
+		int[] min = new int[numUpper], max = new int[numUpper];
+		for (int u=0; u<numUpper; u++){
+			min[u] = Integer.MAX_VALUE;
+			max[u] = -1;
+		}
+		for (int g=0; g<groupTrieNode.size(); g++){
+			int parent = groupParent.get(g);
+			min[parent] = Math.min(min[parent], groupMinMass.get(g));
+			max[parent] = Math.max(max[parent], groupMaxMass.get(g));
+		}
+		for (int u=numUpper-1; u>=0; u--){
+			min[u] -= tolerance;
+			max[u] += tolerance;
+			int parent = upperParent.get(u);
+			if (parent >= 0){
+				min[parent] = Math.min(min[parent], min[u]);
+				max[parent] = Math.max(max[parent], max[u]);
+			}
+		}
+		for (int u=numUpper-1; u>=0; u--){
+			int parent = upperParent.get(u);
+			int firstGroup = upperFirstGroup.get(u);
+			if (parent >= 0){
+				upperNextSibling.set(u, upperFirstChild.get(parent));
+				upperFirstChild.set(parent, u);
+			}
+			nodeArrays[0].set(u, parent >= 0 ? groupFirstPos.get(firstGroup) + upperDepth.get(parent) : 0);
+			nodeArrays[1].set(u, upperDepth.get(u));
+			nodeArrays[4].set(u, min[u]);
+			nodeArrays[5].set(u, max[u]);
+			nodeArrays[6].set(u, groupLeafBegin.get(firstGroup));
+			nodeArrays[7].set(u, groupLeafBegin.get(upperLastGroup.get(u)));
+		}
+		for (int u=0; u<numUpper; u++){
+			nodeArrays[2].set(u, upperFirstChild.get(u));
+			nodeArrays[3].set(u, upperNextSibling.get(u));
+		}
+	}
+
+	private IntFile newIntFile() throws IOException{
+		File file = File.createTempFile("bpm-index", ".tmp", tempDir);
+		file.deleteOnExit();
+		tempFiles.add(file);
+		return new IntFile(file);
+	}
+
+	/**
+	 * allocates an array of zeros in a memory mapped temporary file
+	 * */
+	private IntArray allocate(int length) throws IOException{
+		IntFile file = newIntFile();
+		file.setLength(length);
+		return file.map();
+	}
+
+	/**
+	 * a temporary file of ints, appended to while it is written and then memory mapped
+	 * */
+	private static class IntFile {
+		private RandomAccessFile file;
+		private FileChannel channel;
+		private ByteBuffer buffer = ByteBuffer.allocate(1<<16).order(ByteOrder.LITTLE_ENDIAN);
+		private long length;
+
+		IntFile(File path) throws IOException{
+			file = new RandomAccessFile(path, "rw");
+			channel = file.getChannel();
+		}
+
+		void add(int value) throws IOException{
+			if (!buffer.hasRemaining())
+				flush();
+			buffer.putInt(value);
+			length++;
+		}
+
+		void setLength(long length) throws IOException{
+			flush();
+			file.setLength(length*4);
+			this.length = length;
+		}
+
+		private void flush() throws IOException{
+			buffer.flip();
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+			buffer.clear();
+		}
+
+		/**
+		 * maps the file and closes it, it can no longer be appended to
+		 * */
+		IntArray map() throws IOException{
+			flush();
+			if (length*4 > Integer.MAX_VALUE)
+				throw new IOException("temporary array of "+length+" ints is too large to be mapped");
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, length*4);
+			mapped.order(ByteOrder.LITTLE_ENDIAN);
+			file.close();
+			return IntArray.wrap(mapped.asIntBuffer());
+		}
+	}
+}
@@ -1,20 +1,32 @@
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Vector;
 
-public class PatternSearch {
+public class PatternSearch implements IndexSearch {
 	private SuffixTree tree;
+	private FlatSuffixTree flatTree;
+	private LeafPeptideTable leafTable;
 	private MassTable massTable;
 	private Vector<MatchPos> list1;
 	private Vector<MatchPos> list2;
 	private boolean first = true;
 	public static double errorTolerance = 0.05;
+	//match the masses of a pattern by descending the tree with the masses of the residues, see searchPatternByMass()
+	public static boolean massTraversal = false;
 	private int scaledErrorTolerance = 5;
-	private ArrayList<Node> nodePool;
+	private int[] visitStamp;//epoch of the scan that last visited each node (Node.getId() or flat tree node)
+	private int epoch = 1;//epoch of the scan being searched, see startScan()
 	private PeptideFileHandler pf;
+	private PackedText packedText;
+	private long[] packedStr;//the string being searched, packed like packedText
+	private int[] residueMass;//scaled mass of each residue of the mass strings, 0 for the other characters
+	private FrontierCache frontierCache;//null if the frontiers are not cached
+	private IntList prefix = new IntList();//the masses matched so far
+	private PeptideDictionary dictionary;//peptide masses of the leaves of the SuffixTree, null if it has no database
 
 	/**
 	 * constructor, create two lists
@@ -23,13 +35,49 @@ public class PatternSearch {
 	 * */
 	public PatternSearch(SuffixTree tree, MassTable mt, PeptideFileHandler pf){
 		this.tree = tree;
+		packedText = tree.getPackedText();
 		massTable = mt;
 		this.pf = pf;
 		list1 = new Vector<MatchPos>();
 		list2 = new Vector<MatchPos>();
 		scaledErrorTolerance = (int)Math.round(errorTolerance*massTable.getScaleFactor());
 		//System.out.println("search error:"+errorTolerance);
-		initNodePool();
+		visitStamp = new int[tree.getNumNodes()];
+		residueMass = getResidueMasses(massTable);
+		if (tree.getProteinDatabase() != null)
+			dictionary = tree.getProteinDatabase().getPeptideDictionary();
+	}
+	
+	/**
+	 * constructor, searches a flat suffix tree instead of a SuffixTree
+	 * @param tree flat suffix tree
+	 * @param mt mass table
+	 * */
+	public PatternSearch(FlatSuffixTree tree, MassTable mt, PeptideFileHandler pf){
+		this.flatTree = tree;
+		leafTable = tree.getLeafTable();
+		massTable = mt;
+		this.pf = pf;
+		list1 = new Vector<MatchPos>();
+		list2 = new Vector<MatchPos>();
+		scaledErrorTolerance = (int)Math.round(errorTolerance*massTable.getScaleFactor());
+		visitStamp = new int[tree.getNodeCount()];
+		residueMass = getResidueMasses(massTable);
+	}
+	
+	/**
+	 * keeps the residues the mass table builds its strings from (one residue per scaled mass, see
+	 * MassTable.getAminoAcid()), so that the traversal by mass matches the same strings
+	 * @return the scaled mass of each residue indexed by character, 0 for the other characters
+	 * */
+	static int[] getResidueMasses(MassTable massTable){
+		int[] residueMass = new int[128];
+		for (int i=0; i<MassTable.aminoAcid.length; i++){
+			int mass = massTable.getScaledMass(i);
+			if (massTable.getAminoAcid(mass) == MassTable.aminoAcid[i])
+				residueMass[MassTable.aminoAcid[i]] = mass;
+		}
+		return residueMass;
 	}
 	
 	/**
@@ -39,15 +87,119 @@ public class PatternSearch {
 	 * @return all occurrences of the pattern in the database
 	 * */
 	public ArrayList<LeafEdge> searchPattern(Pattern pattern, int scanNum){
+		if (!matchPattern(pattern))
+			return null;
+
+		ArrayList<LeafEdge> leafSet = findLeafSet(scanNum);
+		//Collections.sort(leafSet, new SuffixPositionComparator());
+		
+		list1.clear();
+		list2.clear();
+		
+		
+		return leafSet;
+	}
+	
+	/**
+	 * search a pattern against a flat suffix tree
+	 * @param pattern 
+	 * 			the given pattern consisting of several numbers
+	 * @return the leaves (see LeafPeptideTable) matching the pattern, null if no match found
+	 * */
+	public IntList searchLeafPositions(Pattern pattern, int scanNum){
+		if (!matchPattern(pattern))
+			return null;
+		
+		IntList leafSet = new IntList();
+		for (int i=0; i<list1.size(); i++)
+			findLeafSet(leafSet, list1.get(i), scanNum);
+		
+		list1.clear();
+		list2.clear();
 		
+		return leafSet;
+	}
+	
+	/**
+	 * search the patterns of a trie against a flat suffix tree
+	 * @return the leaves matching any of the patterns
+	 * */
+	public IntList searchLeafPositions(PatternTrie trie, int scanNum){
+		Vector<MatchPos> matched = matchTrie(trie);
+		IntList leafSet = new IntList();
+		for (int i=0; i<matched.size(); i++)
+			findLeafSet(leafSet, matched.get(i), scanNum);
+		return leafSet;
+	}
+	
+	/**
+	 * search the patterns of a trie against a suffix tree
+	 * @return the leaf edges matching any of the patterns
+	 * */
+	public ArrayList<LeafEdge> searchPattern(PatternTrie trie, int scanNum){
+		Vector<MatchPos> matched = matchTrie(trie);
+		ArrayList<LeafEdge> leafSet = new ArrayList<LeafEdge>();
+		for (int i=0; i<matched.size(); i++)
+			findLeafSet(leafSet, matched.get(i), scanNum);
+		return leafSet;
+	}
+	
+	/**
+	 * matches the patterns of a trie, the frontier of a trie node is expanded once for all the patterns sharing it
+	 * @return the positions matched by the complete patterns
+	 * */
+	private Vector<MatchPos> matchTrie(PatternTrie trie){
+		Vector<MatchPos> saved1 = list1, saved2 = list2;
+		Vector<MatchPos> matched = new Vector<MatchPos>();
+		prefix.clear();
+		matchTrie(trie, PatternTrie.ROOT, null, matched);
+		list1 = saved1;
+		list2 = saved2;
+		first = true;
+		return matched;
+	}
+	
+	/**
+	 * matches the masses of the children of a trie node from the positions matched by the node
+	 * @param frontier
+	 * 			the positions matched by the path to the node, null for the root
+	 * @param matched
+	 * 			the positions matched by the complete patterns are added to it
+	 * */
+	private void matchTrie(PatternTrie trie, int node, Vector<MatchPos> frontier, Vector<MatchPos> matched){
+		for (int child=trie.getFirstChild(node); child!=PatternTrie.NIL; child=trie.getNextSibling(child)){
+			first = frontier == null;
+			list1 = first ? new Vector<MatchPos>() : frontier;
+			list2 = new Vector<MatchPos>();
+			prefix.add(trie.getMass(child));
+			searchPrefix(trie.getMass(child));
+			Vector<MatchPos> next = list2;
+			if (next.size() > 0){
+				if (trie.endsPattern(child))
+					matched.addAll(next);
+				matchTrie(trie, child, next, matched);
+			}
+			prefix.removeLast();
+		}
+	}
+	
+	/**
+	 * matches every mass of a pattern, leaving the matched positions in list1
+	 * @return false if no match found
+	 * */
+	private boolean matchPattern(Pattern pattern){
 		first = true;
 		if (pattern.length() <= 0)
-			return null;
+			return false;
+		prefix.clear();
 		for (int i=0; i<pattern.length(); i++){
-			searchPattern(pattern.get(i));
+			prefix.add(pattern.get(i));
+			searchPrefix(pattern.get(i));
 			//no match found
-			if (list2.size() == 0)
-				return null;
+			if (list2.size() == 0){
+				list1.clear();
+				return false;
+			}
 			//swap list1 and list2
 			Vector<MatchPos> tmpList = list1;
 			list1 = list2;
@@ -55,15 +207,46 @@ public class PatternSearch {
 			list2.clear();
 			first = false;
 		}
-
-		ArrayList<LeafEdge> leafSet = findLeafSet(scanNum);
-		//Collections.sort(leafSet, new SuffixPositionComparator());
-		
-		list1.clear();
-		list2.clear();
-		
-		
-		return leafSet;
+		return true;
+	}
+	
+	/**
+	 * caches the frontiers of the short mass prefixes across the scans, only for a flat suffix tree
+	 * @param cache
+	 * 			the cache, shared by the searches of the tree
+	 * */
+	public void setFrontierCache(FrontierCache cache){
+		if (flatTree != null)
+			frontierCache = cache;
+	}
+	
+	/**
+	 * search the last mass of the prefix from the positions in list1 (the root if first), like searchPattern(int);
+	 * the positions matched by a short prefix are taken from the frontier cache if it holds them, and stored
+	 * there otherwise
+	 * @param mass 
+	 * 			the last mass of the prefix
+	 * */
+	private void searchPrefix(int mass){
+		if (frontierCache == null || prefix.size() > frontierCache.getMaxPrefixLength()){
+			searchPattern(mass);
+			return;
+		}
+		int[] frontier = frontierCache.get(prefix, scaledErrorTolerance);
+		if (frontier != null){
+			for (int k=0; k<frontier.length; k+=3)
+				list2.add(new MatchPos(frontier[k], frontier[k+1], frontier[k+2]));
+			return;
+		}
+		searchPattern(mass);
+		frontier = new int[3*list2.size()];
+		for (int i=0; i<list2.size(); i++){
+			MatchPos matchPos = list2.get(i);
+			frontier[3*i] = matchPos.getNode();
+			frontier[3*i+1] = matchPos.getChild();
+			frontier[3*i+2] = matchPos.getLength();
+		}
+		frontierCache.put(prefix, scaledErrorTolerance, frontier);
 	}
 	
 	/**
@@ -73,16 +256,141 @@ public class PatternSearch {
 	 * @notes there may exist several strings the sum of whom is equal to "mass"
 	 * */
 	public void searchPattern(int mass){
+		if (massTraversal){
+			searchPatternByMass(mass);
+			return;
+		}
 		for (int i=-scaledErrorTolerance; i<=scaledErrorTolerance; i++){
 			if ((mass+i)<=0 || (mass+i)>massTable.getMaxSize())
 				continue;
-			Iterator<String> ite = massTable.getMassString(mass+i);
+			Iterator<?> ite = massTable.getMassString(mass+i);
 			while (ite.hasNext()){
 				searchPattern((String)ite.next());
 			}	
 		}
 	}
 
+	/**
+	 * search the suffix tree with a given value without enumerating the strings of that mass: the tree is
+	 * descended from every matched position, adding up the masses of the residues along the edges. A position is
+	 * matched as soon as the mass enters the tolerance window, and a branch is left as soon as the mass exceeds
+	 * it, so each mass costs one bounded traversal instead of one walk per string. The matched positions are the
+	 * same as with searchPattern(String) for every string of the mass table.
+	 * Near the root a traversal would visit every light substring of the database, so the strings are still
+	 * walked from the root and from the positions with more leaves below them than there are strings.
+	 * @param mass 
+	 * 			a given integer value
+	 * */
+	private void searchPatternByMass(int mass){
+		int low = Math.max(mass-scaledErrorTolerance, 1);
+		int high = Math.min(mass+scaledErrorTolerance, massTable.getMaxSize());
+		if (low > high)
+			return;
+		int numStrings = 0;
+		for (int m=low; m<=high; m++)
+			numStrings += massTable.getNumMassString(m);
+		if (first){
+			for (int m=low; m<=high; m++){
+				Iterator<?> ite = massTable.getMassString(m);
+				while (ite.hasNext())
+					searchPattern((String) ite.next());
+			}
+			return;
+		}
+		for (int i=0; i<list1.size(); i++){
+			MatchPos matchPos = list1.get(i);
+			if (flatTree != null && flatTree.hasLeafIntervals() && !FlatSuffixTree.isLeaf(matchPos.getChild())
+					&& flatTree.getNumLeaves(matchPos.getChild()) > numStrings){
+				for (int m=low; m<=high; m++){
+					Iterator<?> ite = massTable.getMassString(m);
+					while (ite.hasNext())
+						searchFlatPattern((String) ite.next(), matchPos);
+				}
+			}
+			else if (flatTree != null){
+				int node = matchPos.getNode(), child = matchPos.getChild();
+				int mass2 = descendFlatEdge(node, child, matchPos.getLength(), 0, low, high);
+				if (mass2 >= 0 && !FlatSuffixTree.isLeaf(child))
+					descendFlat(child, mass2, low, high);
+			}
+			else {
+				Edge edge = matchPos.getEdge();
+				int mass2 = descendEdge(edge, matchPos.getLength(), 0, low, high);
+				if (mass2 >= 0 && edge.getEndNode() != null)
+					descend(edge.getEndNode(), mass2, low, high);
+			}
+		}
+	}
+	
+	/**
+	 * descends the subtree of a node of the flat suffix tree, see searchPatternByMass()
+	 * @param mass
+	 * 			the mass matched from the starting position to the node
+	 * */
+	private void descendFlat(int node, int mass, int low, int high){
+		for (int child=flatTree.getFirstChild(node); child!=FlatSuffixTree.NIL; child=flatTree.getNextSibling(child)){
+			int mass2 = descendFlatEdge(node, child, 0, mass, low, high);
+			if (mass2 >= 0 && !FlatSuffixTree.isLeaf(child))
+				descendFlat(child, mass2, low, high);
+		}
+	}
+	
+	/**
+	 * adds up the masses of the residues of the edge from node to child after its first length characters,
+	 * adding a matched position to list2 when the mass is within [low, high]
+	 * @return the mass at the end of the edge, -1 if the descent stops on the edge
+	 * */
+	private int descendFlatEdge(int node, int child, int length, int mass, int low, int high){
+		int begin = flatTree.getEdgeBegin(node, child);
+		int edgeLength = flatTree.getEdgeLength(node, child);
+		for (int k=length; k<edgeLength; k++){
+			mass = addResidue(mass, flatTree.charAt(begin+k), high);
+			if (mass < 0)
+				return -1;
+			if (mass >= low)
+				list2.add(new MatchPos(node, child, k+1));
+		}
+		return mass;
+	}
+	
+	/**
+	 * descends the subtree of a node of the suffix tree, see searchPatternByMass()
+	 * @param mass
+	 * 			the mass matched from the starting position to the node
+	 * */
+	private void descend(Node node, int mass, int low, int high){
+		for (int i=0; i<node.getNumEdges(); i++){
+			Edge edge = node.getEdgeAt(i);
+			int mass2 = descendEdge(edge, 0, mass, low, high);
+			if (mass2 >= 0 && edge.getEndNode() != null)
+				descend(edge.getEndNode(), mass2, low, high);
+		}
+	}
+	
+	/**
+	 * like descendFlatEdge(), for an edge of the suffix tree
+	 * */
+	private int descendEdge(Edge edge, int length, int mass, int low, int high){
+		for (int k=length; k<edge.getLength(); k++){
+			mass = addResidue(mass, packedText.charAt(edge.getBeginIndex()+k), high);
+			if (mass < 0)
+				return -1;
+			if (mass >= low)
+				list2.add(new MatchPos(edge, k+1));
+		}
+		return mass;
+	}
+	
+	/**
+	 * adds the mass of a residue to a mass
+	 * @return the new mass, -1 if it exceeds high or the character is not a residue of the mass strings
+	 * */
+	private int addResidue(int mass, char ch, int high){
+		if (ch >= residueMass.length || residueMass[ch] == 0)
+			return -1;
+		mass += residueMass[ch];
+		return mass <= high ? mass : -1;
+	}
 	
 	/**
 	 * search a particular string against the suffix tree
@@ -90,6 +398,8 @@ public class PatternSearch {
 	 * 			the given string to be searched
 	 * */
 	public void searchPattern(String str){
+		if (tree != null)
+			packedStr = PackedText.pack(str);
 		if (first)
 			searchPattern(str, null);
 		else {
@@ -105,8 +415,11 @@ public class PatternSearch {
 	 * @param matchPos 
 	 * 			a position in the suffix tree (start matching the string from this given position)
 	 * @return the matched position, null if mismatch
+	 * @notes the edge labels are compared with the packed string (see searchPattern(String)) up to 12 characters at a time
 	 * */
 	public MatchPos searchPattern(String str, MatchPos matchPos){
+		if (flatTree != null)
+			return searchFlatPattern(str, matchPos);
 		int i = 0, j = 0;
 		Node node;
 		Edge edge;
@@ -122,19 +435,15 @@ public class PatternSearch {
 			j = matchPos.getLength();
 			int remaining = edge.getLength() - j;
 			if (str.length() <= remaining) {
-				for (int k=0; k<str.length(); k++){
-					boolean result = compareChar(str.charAt(k), edge.getItemAt2(j+k));
-					if (!result) return null;
-				}
+				if (!packedText.regionMatches(edge.getBeginIndex()+j, packedStr, 0, str.length()))
+					return null;
 				newMatchPos = new MatchPos(edge, j+str.length());
 				list2.add(newMatchPos);
 				return newMatchPos;
 			}
 			else {
-				for (int k=0; k<remaining; k++){
-					boolean result = compareChar(str.charAt(k), edge.getItemAt2(j+k));
-					if (!result) return null;
-				}
+				if (!packedText.regionMatches(edge.getBeginIndex()+j, packedStr, 0, remaining))
+					return null;
 				i = remaining;
 				node = edge.getEndNode();
 			}
@@ -144,21 +453,82 @@ public class PatternSearch {
 			edge = node.findEdge(str.charAt(i));
 			if (edge == null)
 				return null;
+			//the first character is matched by findEdge()
+			int len = Math.min(str.length()-i, edge.getLength());
+			if (!packedText.regionMatches(edge.getBeginIndex()+1, packedStr, i+1, len-1))
+				return null;
+			i += len;
+			if (len < edge.getLength()){
+				newMatchPos = new MatchPos(edge, len);
+				list2.add(newMatchPos);
+				return newMatchPos;
+			}
+			node = edge.getEndNode();
+		}
+		
+		newMatchPos = new MatchPos(edge, edge.getLength());
+		list2.add(newMatchPos);
+		return newMatchPos;
+	}
+	
+	/**
+	 * search a particular string from a given position of the flat suffix tree
+	 * @param str 
+	 * 			the string to be searched
+	 * @param matchPos 
+	 * 			a position in the flat suffix tree, null for the root
+	 * @return the matched position, null if mismatch
+	 * */
+	private MatchPos searchFlatPattern(String str, MatchPos matchPos){
+		int i = 0;
+		int node, child = FlatSuffixTree.NIL;
+		int parent = FlatSuffixTree.NIL;
+		MatchPos newMatchPos = null;
+		
+		if (matchPos == null)
+			node = flatTree.getRoot();
+		else {
+			parent = matchPos.getNode();
+			child = matchPos.getChild();
+			int j = matchPos.getLength();
+			int begin = flatTree.getEdgeBegin(parent, child) + j;
+			int remaining = flatTree.getEdgeLength(parent, child) - j;
+			int len = Math.min(str.length(), remaining);
+			for (int k=0; k<len; k++){
+				if (!compareChar(str.charAt(k), flatTree.charAt(begin+k)))
+					return null;
+			}
+			if (str.length() <= remaining){
+				newMatchPos = new MatchPos(parent, child, j+str.length());
+				list2.add(newMatchPos);
+				return newMatchPos;
+			}
+			i = remaining;
+			node = child;
+		}
+		
+		while (i < str.length()){
+			child = flatTree.findChild(node, str.charAt(i));
+			if (child == FlatSuffixTree.NIL)
+				return null;
 			i++;
-			for (int k=edge.getBeginIndex()+1; k<=edge.getEndIndex(); k++){
+			int begin = flatTree.getEdgeBegin(node, child);
+			int end = flatTree.getEdgeEnd(node, child);
+			for (int k=begin+1; k<=end; k++){
 				if (i == str.length()){
-					newMatchPos = new MatchPos(edge, k-edge.getBeginIndex());
+					newMatchPos = new MatchPos(node, child, k-begin);
 					list2.add(newMatchPos);
 					return newMatchPos;
 				}
-				boolean result = compareChar(str.charAt(i), edge.getItemAt(k));
-				if (!result) return null;	
+				if (!compareChar(str.charAt(i), flatTree.charAt(k)))
+					return null;
 				i++;
 			}
-			node = edge.getEndNode();
+			parent = node;
+			node = child;
 		}
 		
-		newMatchPos = new MatchPos(edge, edge.getLength());
+		newMatchPos = new MatchPos(parent, child, flatTree.getEdgeLength(parent, child));
 		list2.add(newMatchPos);
 		return newMatchPos;
 	}
@@ -194,9 +564,8 @@ public class PatternSearch {
 			return;
 		}
 		
-		if (node.getVisitStatus()) return;
-		nodePool.add(node);
-		node.setVisitStatus(true);
+		if (visitStamp[node.getId()] == epoch) return;
+		visitStamp[node.getId()] = epoch;
 		if (inErrorTolerance(node, scanNum) == false) return;
 		//nodePool.add(node);
 		//node.setVisitStatus(true);
@@ -205,17 +574,14 @@ public class PatternSearch {
 			ArrayList<Node> childNodes = new ArrayList<Node>();
 			for (int k=0; k<stack.size(); k++){
 				Node node2 = stack.get(k);
-				for (int i=0; i<21; i++){
-					Edge edge = node2.getEdge(i);
-					if (edge == null)
-						continue;
+				for (int i=0; i<node2.getNumEdges(); i++){
+					Edge edge = node2.getEdgeAt(i);
 					Node endNode = edge.getEndNode();
 					if (endNode != null){ 
-						if (endNode.getVisitStatus() == false){
+						if (visitStamp[endNode.getId()] != epoch){
 							if (inErrorTolerance(endNode, scanNum))
 								childNodes.add(endNode);
-							nodePool.add(endNode);
-							endNode.setVisitStatus(true);
+							visitStamp[endNode.getId()] = epoch;
 						}
 					}
 					else{
@@ -230,6 +596,28 @@ public class PatternSearch {
 		}
 	}
 	
+	/**
+	 * find all the leaves in the subtree of the given match position of the flat suffix tree, the subtree is
+	 * not traversed: its leaves are the interval of the matched node in the depth-first leaf list of the tree
+	 * @param leafSet used to store the leaves found
+	 * @param the given position in the flat suffix tree
+	 * */
+	public void findLeafSet(IntList leafSet, MatchPos matchPos, int scanNum){
+		int refMass = pf.getMassValue(scanNum);
+		int matchNode = matchPos.getChild();
+		if (FlatSuffixTree.isLeaf(matchNode)){
+			int leaf = FlatSuffixTree.getLeaf(matchNode);
+			if (leafTable.inErrorTolerance(leaf, refMass))
+				leafSet.add(leaf);
+			return;
+		}
+		
+		if (visitStamp[matchNode] == epoch) return;
+		visitStamp[matchNode] = epoch;
+		if (flatTree.inErrorTolerance(matchNode, refMass))
+			flatTree.collectLeaves(matchNode, refMass, leafSet);
+	}
+	
 	/**
 	 * sets the error tolerance when searching the suffix tree
 	 * @param error
@@ -255,20 +643,24 @@ public class PatternSearch {
 		return result;
 	}
 	
-	public void initNodePool(){
-		nodePool = new ArrayList<Node>();
-	}
-	
-	public void clearNodePool(){
-		for (int i=0; i<nodePool.size(); i++){
-			nodePool.get(i).setVisitStatus(false);
+	/**
+	 * forgets the nodes visited by the previous scan: a node is visited by the current scan if its stamp is the
+	 * current epoch, so starting a new epoch resets them all at once. The stamps belong to this search, so the
+	 * tree can be shared by several searches running at the same time (e.g. one per thread)
+	 * */
+	public void startScan(){
+		if (++epoch == 0){
+			//the epochs wrapped around, old stamps could match again
+			Arrays.fill(visitStamp, 0);
+			epoch = 1;
 		}
-		//nodePool.removeAll(nodePool);
-		nodePool.clear();
 	}
 	
 	public boolean inErrorTolerance(LeafEdge edge, int scanNum){
-		return edge.inErrorTolerance(pf.getMassValue(scanNum));
+		if (dictionary == null)
+			return edge.inErrorTolerance(pf.getMassValue(scanNum));
+		//read the mass from the dictionary directly, the edge would find it through its tree and database
+		return Math.abs(dictionary.getPeptideMass(edge.getPeptideId())-pf.getMassValue(scanNum)) <= DoSearch2.getScaledMassTolerance();
 	}
 	
 	public boolean inErrorTolerance(Node node, int scanNum){
@@ -281,6 +673,8 @@ public class PatternSearch {
  * */
 class MatchPos{
 	private Edge edge;// an edge in the suffix tree
+	private int node;// for a flat suffix tree, the edge from node to child
+	private int child;
 	private int length;//the number of characters that have been matched
 	
 	
@@ -300,6 +694,15 @@ class MatchPos{
 		length = len;
 	}
 	
+	/**
+	 * create a new MatchPos object on the edge from node to child of a flat suffix tree
+	 * */
+	public MatchPos(int node, int child, int len){
+		this.node = node;
+		this.child = child;
+		length = len;
+	}
+	
 	/**
 	 * get the matching edge
 	 * @return the matching edge
@@ -308,6 +711,20 @@ class MatchPos{
 		return edge;
 	}
 	
+	/**
+	 * get the start node of the matching edge in a flat suffix tree
+	 * */
+	public int getNode(){
+		return node;
+	}
+	
+	/**
+	 * get the end node (or leaf) of the matching edge in a flat suffix tree
+	 * */
+	public int getChild(){
+		return child;
+	}
+	
 	/**
 	 * get the offset where the matching position lies in the edge
 	 * @return the number of characters matching the edge
@@ -318,6 +735,8 @@ class MatchPos{
 	
 	
 	public String toString(){
+		if (edge == null)
+			return node+"->"+child+" "+length;
 		return edge.toString()+" "+length;
 	}
 }
\ No newline at end of file
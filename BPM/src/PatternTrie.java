@@ -0,0 +1,119 @@
+import java.util.ArrayList;
+import java.util.Collection;
+
+
+/**
+ * The patterns of a scan merged into a trie of masses: the patterns sharing their first masses share a path
+ * from the root, so a search matches those masses once for all of them and only branches where the patterns
+ * diverge (see IndexSearch.searchLeafPositions(PatternTrie, int)). Node ROOT stands for the empty pattern, every
+ * other node for the pattern spelled by the masses of the edges on its path, the mass of an edge is stored
+ * in the node it leads to. A node ends a pattern if that pattern was added, not only a longer one.
+ * */
+public class PatternTrie {
+	public static final int ROOT = 0;
+	public static final int NIL = -1;
+
+	private IntList mass;
+	private IntList firstChild;
+	private IntList nextSibling;
+	private IntList endsPattern;
+	private ArrayList<Pattern> patterns;
+
+	/**
+	 * constructor, creates an empty trie
+	 * */
+	public PatternTrie(){
+		mass = new IntList();
+		firstChild = new IntList();
+		nextSibling = new IntList();
+		endsPattern = new IntList();
+		patterns = new ArrayList<Pattern>();
+		clear();
+	}
+
+	/**
+	 * removes every pattern, the trie can then be filled with the patterns of the next scan
+	 * */
+	public void clear(){
+		mass.clear();
+		firstChild.clear();
+		nextSibling.clear();
+		endsPattern.clear();
+		patterns.clear();
+		newNode(0);
+	}
+
+	private int newNode(int value){
+		mass.add(value);
+		firstChild.add(NIL);
+		nextSibling.add(NIL);
+		endsPattern.add(0);
+		return mass.size()-1;
+	}
+
+	/**
+	 * adds a pattern, empty patterns are ignored
+	 * */
+	public void add(Pattern pattern){
+		if (pattern.length() <= 0)
+			return;
+		patterns.add(pattern);
+		int node = ROOT;
+		for (int i=0; i<pattern.length(); i++){
+			int child = firstChild.get(node);
+			while (child != NIL && mass.get(child) != pattern.get(i))
+				child = nextSibling.get(child);
+			if (child == NIL){
+				child = newNode(pattern.get(i));
+				nextSibling.set(child, firstChild.get(node));
+				firstChild.set(node, child);
+			}
+			node = child;
+		}
+		endsPattern.set(node, 1);
+	}
+
+	/**
+	 * adds every pattern of a collection, e.g. the tags of a scan
+	 * */
+	public void addAll(Collection<?> patterns){
+		for (Object pattern : patterns)
+			add((Pattern) pattern);
+	}
+
+	public int getFirstChild(int node){
+		return firstChild.get(node);
+	}
+
+	public int getNextSibling(int node){
+		return nextSibling.get(node);
+	}
+
+	/**
+	 * gets the mass of the edge leading to a node
+	 * */
+	public int getMass(int node){
+		return mass.get(node);
+	}
+
+	/**
+	 * test if a pattern ends at a node
+	 * */
+	public boolean endsPattern(int node){
+		return endsPattern.get(node) != 0;
+	}
+
+	/**
+	 * gets the patterns added to the trie, in the order they were added
+	 * */
+	public ArrayList<Pattern> getPatterns(){
+		return patterns;
+	}
+
+	/**
+	 * gets the number of nodes, including the root
+	 * */
+	public int size(){
+		return mass.size();
+	}
+}
@@ -0,0 +1,246 @@
+import java.util.HashMap;
+import java.util.Vector;
+
+
+/**
+ * The distinct tryptic peptides of a protein database. Each distinct peptide sequence gets one id (in the order
+ * of its first occurrence) with its mass and the list of its occurrences in the proteins, so identical peptides
+ * of isoforms are stored and weighed only once. The leaves of the indexes refer to their peptide by id.
+ * The peptide strings are not kept, getPeptide() cuts them from the first occurrence when they are needed
+ * (e.g. when a result is written).
+ *
+ * The peptides of the database are numbered in the order of the proteins and of their positions, peptide g
+ * starts at peptideStart[g] in its sequence and has the distinct id peptideId[g]; the peptides of sequence-i
+ * range from [seqFirstPeptide[i], seqFirstPeptide[i+1]). The occurrences of id p are the peptides
+ * occurrences[occurrenceStart[p]..occurrenceStart[p+1]), in ascending order.
+ * */
+public class PeptideDictionary {
+	private ProteinDatabase database;
+	private IntArray peptideMass;
+	private IntArray occurrenceStart;
+	private IntArray occurrences;
+	private IntArray peptideStart;
+	private IntArray peptideId;
+	private int[] seqFirstPeptide;
+
+	/**
+	 * constructor, collects the distinct peptides of a digested database
+	 * @param database
+	 * 			the protein database
+	 * @param peptideTable
+	 * 			the start positions of the peptides of each sequence, see ProteinDatabase.extractPeptideFromSeq2()
+	 * */
+	public PeptideDictionary(ProteinDatabase database, Vector<Vector<Integer>> peptideTable){
+		this.database = database;
+		int numSeq = database.size();
+		seqFirstPeptide = new int[numSeq+1];
+		for (int i=0; i<numSeq; i++)
+			seqFirstPeptide[i+1] = seqFirstPeptide[i] + peptideTable.get(i).size();
+		int numPeptides = seqFirstPeptide[numSeq];
+		peptideStart = IntArray.allocate(numPeptides);
+		peptideId = IntArray.allocate(numPeptides);
+
+		HashMap<String, Integer> ids = new HashMap<String, Integer>();
+		for (int i=0; i<numSeq; i++){
+			Vector<Integer> peptideInfo = peptideTable.get(i);
+			for (int j=0; j<peptideInfo.size(); j++){
+				int g = seqFirstPeptide[i] + j;
+				int start = peptideInfo.get(j);
+				int end = j+1 < peptideInfo.size() ? peptideInfo.get(j+1) : database.getSeqLength(i);
+				String pepString = database.getSubSeq(i, start, end);
+				Integer id = ids.get(pepString);
+				if (id == null){
+					id = ids.size();
+					ids.put(pepString, id);
+				}
+				peptideStart.set(g, start);
+				peptideId.set(g, id);
+			}
+		}
+		int numDistinct = ids.size();
+		ids = null;
+		peptideMass = IntArray.allocate(numDistinct);
+
+		//counting sort of the peptides by id
+		occurrenceStart = IntArray.allocate(numDistinct+1);
+		for (int g=0; g<numPeptides; g++)
+			occurrenceStart.set(peptideId.get(g)+1, occurrenceStart.get(peptideId.get(g)+1)+1);
+		for (int p=0; p<numDistinct; p++)
+			occurrenceStart.set(p+1, occurrenceStart.get(p+1)+occurrenceStart.get(p));
+		int[] next = new int[numDistinct];
+		occurrenceStart.copyTo(0, next, 0, numDistinct);
+		occurrences = IntArray.allocate(numPeptides);
+		for (int g=0; g<numPeptides; g++)
+			occurrences.set(next[peptideId.get(g)]++, g);
+	}
+
+	/**
+	 * constructor, restores a dictionary saved by IndexFileHandler
+	 * @param database
+	 * 			the protein database
+	 * @param arrays
+	 * 			the arrays of the dictionary, in the order given by getArrays()
+	 * */
+	PeptideDictionary(ProteinDatabase database, IntArray[] arrays){
+		this.database = database;
+		peptideMass = arrays[0];
+		occurrenceStart = arrays[1];
+		occurrences = arrays[2];
+		peptideStart = arrays[3];
+		peptideId = arrays[4];
+		seqFirstPeptide = new int[arrays[5].length()];
+		arrays[5].copyTo(0, seqFirstPeptide, 0, seqFirstPeptide.length);
+	}
+
+	/**
+	 * gets the arrays of the dictionary, used to save the dictionary to disk
+	 * @return peptideMass, occurrenceStart, occurrences, peptideStart, peptideId and seqFirstPeptide
+	 * */
+	IntArray[] getArrays(){
+		return new IntArray[]{peptideMass, occurrenceStart, occurrences, peptideStart, peptideId, IntArray.wrap(seqFirstPeptide)};
+	}
+
+	/**
+	 * computes the mass of each distinct peptide
+	 * */
+	public void computePeptideMasses(DoSearch2 doSearch){
+		for (int p=0; p<size(); p++)
+			peptideMass.set(p, doSearch.computePeptideMass(getPeptide(p)));
+	}
+
+	/**
+	 * gets the number of distinct peptides
+	 * */
+	public int size(){
+		return peptideMass.length();
+	}
+
+	/**
+	 * gets the number of peptides of the database, counting every occurrence
+	 * */
+	public int getNumPeptides(){
+		return peptideId.length();
+	}
+
+	/**
+	 * gets the sequence of a distinct peptide, cut from its first occurrence
+	 * */
+	public String getPeptide(int id){
+		int g = occurrences.get(occurrenceStart.get(id));
+		int seqNum = getSeqNum(g);
+		return database.getSubSeq(seqNum, peptideStart.get(g), getPeptideEnd(seqNum, g));
+	}
+
+	public int getPeptideMass(int id){
+		return peptideMass.get(id);
+	}
+
+	/**
+	 * gets the distinct peptide a position belongs to
+	 * @param seqNum
+	 * 			the sequence
+	 * @param posInSeq
+	 * 			a position in the sequence, the separator after the sequence belongs to its last peptide
+	 * @return the peptide id
+	 * */
+	public int getPeptideId(int seqNum, int posInSeq){
+		return peptideId.get(getPeptideIndex(seqNum, posInSeq));
+	}
+
+	/**
+	 * gets the peptide of the database a position belongs to
+	 * @return the peptide number, counting every occurrence
+	 * */
+	public int getPeptideIndex(int seqNum, int posInSeq){
+		int low = seqFirstPeptide[seqNum], high = seqFirstPeptide[seqNum+1]-1;
+		while (low < high){
+			int middle = (low+high+1)>>>1;
+			if (peptideStart.get(middle) <= posInSeq)
+				low = middle;
+			else
+				high = middle - 1;
+		}
+		return low;
+	}
+
+	/**
+	 * gets the number of occurrences of a distinct peptide
+	 * */
+	public int getNumOccurrences(int id){
+		return occurrenceStart.get(id+1) - occurrenceStart.get(id);
+	}
+
+	/**
+	 * gets an occurrence of a distinct peptide
+	 * @param id
+	 * 			the peptide id
+	 * @param k
+	 * 			the occurrence, starts from 0 (the first occurrence in the database)
+	 * @return the peptide number, see getSeqNum() and getPeptideStart()
+	 * */
+	public int getOccurrence(int id, int k){
+		return occurrences.get(occurrenceStart.get(id)+k);
+	}
+
+	/**
+	 * gets the sequence of a peptide of the database
+	 * @param g
+	 * 			the peptide number, counting every occurrence
+	 * */
+	public int getSeqNum(int g){
+		int low = 0, high = seqFirstPeptide.length-2;
+		while (low < high){
+			int middle = (low+high+1)>>>1;
+			if (seqFirstPeptide[middle] <= g)
+				low = middle;
+			else
+				high = middle - 1;
+		}
+		return low;
+	}
+
+	/**
+	 * gets the start position of a peptide of the database in its sequence
+	 * @param g
+	 * 			the peptide number, counting every occurrence
+	 * */
+	public int getPeptideStart(int g){
+		return peptideStart.get(g);
+	}
+
+	/**
+	 * gets the length of a distinct peptide
+	 * */
+	public int getPeptideLength(int id){
+		int g = occurrences.get(occurrenceStart.get(id));
+		return getPeptideEnd(getSeqNum(g), g) - peptideStart.get(g);
+	}
+
+	private int getPeptideEnd(int seqNum, int g){
+		return g+1 < seqFirstPeptide[seqNum+1] ? peptideStart.get(g+1) : database.getSeqLength(seqNum);
+	}
+
+	/**
+	 * gets the positions in the combined sequence where the first occurrence of each distinct peptide starts,
+	 * used to build an index over the distinct peptides
+	 * @param numOffsets
+	 * 			the number of positions following each peptide start that are also returned (inside the peptide)
+	 * @return the positions in ascending order
+	 * */
+	public int[] getFirstOccurrencePositions(int numOffsets){
+		int[] seqStart = new int[seqFirstPeptide.length-1];
+		for (int i=1; i<seqStart.length; i++)
+			seqStart[i] = seqStart[i-1] + database.getSeqLength(i-1) + 1;
+		IntList positions = new IntList();
+		for (int p=0; p<size(); p++){
+			//ids are numbered by first occurrence, so the positions are ascending
+			int g = occurrences.get(occurrenceStart.get(p));
+			int seqNum = getSeqNum(g);
+			int start = peptideStart.get(g);
+			int end = getPeptideEnd(seqNum, g);
+			for (int k=0; start+k<end && k<=numOffsets; k++)
+				positions.add(seqStart[seqNum]+start+k);
+		}
+		return positions.toArray();
+	}
+}
@@ -1,10 +1,18 @@
+import java.util.ArrayList;
 import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 
 public class Preprocessing {
+	//levels of the tree whose subtrees are processed as separate tasks by the parallel preprocessing
+	private static final int SPLIT_LEVELS = 2;
 	private SuffixTree suffixTree;
+	private FlatSuffixTree flatTree;
+	private LeafPeptideTable leafTable;
 	private ProteinDatabase proteinDatabase;
 	private Vector<Vector<Integer>> peptideTable;
+	private PeptideDictionary dictionary;
 	private DoSearch2 doSearch;
 	
 	public Preprocessing(SuffixTree st, ProteinDatabase pd, DoSearch2 doSearch, Vector<Vector<Integer>> peptideTable){
@@ -12,36 +20,72 @@ public class Preprocessing {
 		proteinDatabase = pd;
 		this.peptideTable = peptideTable;
 		this.doSearch = doSearch;
+		computePeptideMasses();
+	}
+	
+	public Preprocessing(FlatSuffixTree ft, ProteinDatabase pd, DoSearch2 doSearch, Vector<Vector<Integer>> peptideTable){
+		flatTree = ft;
+		leafTable = ft.getLeafTable();
+		proteinDatabase = pd;
+		this.peptideTable = peptideTable;
+		this.doSearch = doSearch;
+		computePeptideMasses();
+	}
+	
+	/**
+	 * computes the mass of each distinct peptide once, the leaves then refer to the peptides by id
+	 * */
+	private void computePeptideMasses(){
+		dictionary = proteinDatabase.getPeptideDictionary();
+		dictionary.computePeptideMasses(doSearch);
 	}
 	
 	public void computeLeafPeptideMass(LeafEdge edge){
-		SuffixPosition sp = edge.getSuffixPosition();
-		sp.compPeptidePos2(peptideTable, proteinDatabase);
-		String pepString = sp.getPeptideSequence(proteinDatabase);
-		edge.setPeptideSequence(pepString);
-		int mass = doSearch.computePeptideMass(pepString);
-		edge.setPeptideMass(mass);
-		sp = null;
-		pepString = null;
+		edge.setPeptideId(dictionary.getPeptideId(edge.getSeqNum(), edge.getLeafIndex()));
 	}
 	
+	/**
+	 * computes the peptide mass of each leaf and the mass range of each node in a subtree of the suffix tree,
+	 * the subtree is traversed in post-order with an explicit stack, so deep trees do not overflow the call stack
+	 * @param node
+	 * 			the subtree root
+	 * */
 	public void computeMassRangeForNodes(Node node){
-		for (int i=0; i<21; i++){
-			Edge edge = node.getEdge(i);
-			if (edge == null) continue;
-			Node childNode = edge.getEndNode();
-			if (childNode == null)
-				computeLeafPeptideMass((LeafEdge)edge);
-			else
-				computeMassRangeForNodes(childNode);
+		ArrayList<Node> stack = new ArrayList<Node>();
+		IntList expanded = new IntList();//1 if the children of the node on the stack have been pushed
+		stack.add(node);
+		expanded.add(0);
+		while (stack.size() > 0){
+			int top = stack.size()-1;
+			Node current = stack.get(top);
+			if (expanded.get(top) == 0){
+				expanded.set(top, 1);
+				for (int i=0; i<current.getNumEdges(); i++){
+					Node childNode = current.getEdgeAt(i).getEndNode();
+					if (childNode != null){
+						stack.add(childNode);
+						expanded.add(0);
+					}
+				}
+			}
+			else {
+				stack.remove(top);
+				expanded.removeLast();
+				computeMassRange(current);
+			}
 		}
-		
+	}
+	
+	/**
+	 * computes the mass range of a node whose internal children are done, and the peptide masses of its leaves
+	 * */
+	private void computeMassRange(Node node){
 		int min = Integer.MAX_VALUE, max = -1;
-		for (int i=0; i<21; i++){
-			Edge edge = node.getEdge(i);
-			if (edge == null) continue;
+		for (int i=0; i<node.getNumEdges(); i++){
+			Edge edge = node.getEdgeAt(i);
 			Node childNode = edge.getEndNode();
 			if (childNode == null){
+				computeLeafPeptideMass((LeafEdge)edge);
 				int mass = ((LeafEdge) edge).getPeptideMass();
 				if (min > mass)
 					min = mass;
@@ -59,4 +103,154 @@ public class Preprocessing {
 		node.setMinPeptideMass(min-doSearch.getScaledMassTolerance());
 		node.setMaxPeptideMass(max+doSearch.getScaledMassTolerance());
 	}
+	
+	/**
+	 * computes the mass ranges of the suffix tree by numThreads threads: the subtrees below the top
+	 * SPLIT_LEVELS levels are independent, they are processed in parallel by computeMassRangeForNodes()
+	 * @param root
+	 * 			the root of the tree
+	 * */
+	public void computeMassRangeForNodes(final Node root, int numThreads){
+		ForkJoinPool pool = new ForkJoinPool(numThreads);
+		try {
+			pool.invoke(new NodeTask(root, 0));
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	private class NodeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private Node node;
+		private int level;
+		
+		NodeTask(Node node, int level){
+			this.node = node;
+			this.level = level;
+		}
+		
+		protected void compute(){
+			if (level >= SPLIT_LEVELS){
+				computeMassRangeForNodes(node);
+				return;
+			}
+			ArrayList<NodeTask> tasks = new ArrayList<NodeTask>();
+			for (int i=0; i<node.getNumEdges(); i++){
+				Node childNode = node.getEdgeAt(i).getEndNode();
+				if (childNode != null)
+					tasks.add(new NodeTask(childNode, level+1));
+			}
+			invokeAll(tasks);
+			computeMassRange(node);
+		}
+	}
+	
+	public Preprocessing(LeafPeptideTable leafTable, ProteinDatabase pd, DoSearch2 doSearch, Vector<Vector<Integer>> peptideTable){
+		this.leafTable = leafTable;
+		proteinDatabase = pd;
+		this.peptideTable = peptideTable;
+		this.doSearch = doSearch;
+		computePeptideMasses();
+	}
+	
+	public void computeLeafPeptideMass(int leaf){
+		int seqNum = leafTable.getSeqNum(leaf);
+		leafTable.setPeptide(leaf, dictionary.getPeptideId(seqNum, leafTable.getLeafIndex(leaf)));
+	}
+	
+	/**
+	 * computes the peptide mass of every leaf in the leaf table, used by the indexes without internal nodes
+	 * */
+	public void computeLeafPeptideMasses(){
+		for (int leaf=0; leaf<leafTable.size(); leaf++)
+			computeLeafPeptideMass(leaf);
+	}
+	
+	/**
+	 * computes the peptide mass of each leaf and the mass range of each node in a subtree of the flat suffix tree,
+	 * the subtree is traversed in post-order with an explicit stack
+	 * @param node
+	 * 			the subtree root, an internal node id of the flat tree
+	 * */
+	public void computeMassRangeForNodes(int node){
+		//a node is pushed as node when entered and as ~node when its children are done
+		IntList stack = new IntList();
+		stack.add(node);
+		while (!stack.isEmpty()){
+			int ref = stack.removeLast();
+			if (ref < 0){
+				computeMassRange(~ref);
+				continue;
+			}
+			stack.add(~ref);
+			for (int child=flatTree.getFirstChild(ref); child!=FlatSuffixTree.NIL; child=flatTree.getNextSibling(child))
+				if (!FlatSuffixTree.isLeaf(child))
+					stack.add(child);
+		}
+	}
+	
+	/**
+	 * computes the mass range of a node of the flat tree whose internal children are done, and the peptide masses of its leaves
+	 * */
+	private void computeMassRange(int node){
+		int min = Integer.MAX_VALUE, max = -1;
+		for (int child=flatTree.getFirstChild(node); child!=FlatSuffixTree.NIL; child=flatTree.getNextSibling(child)){
+			if (FlatSuffixTree.isLeaf(child)){
+				int leaf = FlatSuffixTree.getLeaf(child);
+				computeLeafPeptideMass(leaf);
+				int mass = leafTable.getPeptideMass(leaf);
+				if (min > mass)
+					min = mass;
+				if (max < mass)
+					max = mass;
+			}
+			else{
+				if (min > flatTree.getMinPeptideMass(child))
+					min = flatTree.getMinPeptideMass(child);
+				if (max < flatTree.getMaxPeptideMass(child))
+					max = flatTree.getMaxPeptideMass(child);
+			}
+		}
+		
+		flatTree.setMinPeptideMass(node, min-DoSearch2.getScaledMassTolerance());
+		flatTree.setMaxPeptideMass(node, max+DoSearch2.getScaledMassTolerance());
+	}
+	
+	/**
+	 * computes the mass ranges of the flat suffix tree by numThreads threads, see computeMassRangeForNodes(Node, int)
+	 * @param root
+	 * 			the root of the tree
+	 * */
+	public void computeMassRangeForNodes(int root, int numThreads){
+		ForkJoinPool pool = new ForkJoinPool(numThreads);
+		try {
+			pool.invoke(new FlatTask(root, 0));
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	private class FlatTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private int node;
+		private int level;
+		
+		FlatTask(int node, int level){
+			this.node = node;
+			this.level = level;
+		}
+		
+		protected void compute(){
+			if (level >= SPLIT_LEVELS){
+				computeMassRangeForNodes(node);
+				return;
+			}
+			ArrayList<FlatTask> tasks = new ArrayList<FlatTask>();
+			for (int child=flatTree.getFirstChild(node); child!=FlatSuffixTree.NIL; child=flatTree.getNextSibling(child))
+				if (!FlatSuffixTree.isLeaf(child))
+					tasks.add(new FlatTask(child, level+1));
+			invokeAll(tasks);
+			computeMassRange(node);
+		}
+	}
 }
@@ -20,6 +20,7 @@ public class ProteinDatabase {
 	private Vector<String> proteinID;
 	private Vector<String> seqSet;//store each individual sequence
 	private int[][] peptidePos;
+	private PeptideDictionary peptideDictionary;
 	
 	/**
 	 * constructor
@@ -83,6 +84,14 @@ public class ProteinDatabase {
 		sequence = seq;
 	}
 	
+	/**
+	 * drops the combined sequence once the index holds its own copy of the text (see SuffixTree), so that the
+	 * string can be freed; getSequence() returns null afterwards
+	 * */
+	public void releaseSequence(){
+		sequence = null;
+	}
+	
 	
 	/**
 	 * gets the protein name
@@ -111,6 +120,15 @@ public class ProteinDatabase {
 		delims = null;
 	}
 	
+	/**
+	 * stores a protein name that has already been extracted from the header line
+	 * @param id
+	 * 			the protein name, see addProteinID(String)
+	 * */
+	public void addParsedProteinID(String id){
+		proteinID.add(id);
+	}
+	
 	/**
 	 * gets the subsequence indicated by [startPos, endPos) from a sequence 
 	 * */
@@ -213,6 +231,7 @@ public class ProteinDatabase {
 	 * @notes:  extractPeptideFromSeq() vs extractPeptideFromSeq2(): the former only stores the start position 
 	 * of each peptide; the latter stores the start position of a peptide for each given position in the sequence,
 	 * computed only once, used to speed up the program.
+	 * The distinct peptides are collected in the peptide dictionary, see getPeptideDictionary().
 	 * */
 	public Vector<Vector<Integer>> extractPeptideFromSeq2() throws IOException{
 		initPeptidePos();
@@ -221,10 +240,23 @@ public class ProteinDatabase {
 			Vector<Integer> peptideInfo = extractPeptideFromOneSeq2(i);
 			peptideTable.add(peptideInfo);
 		}
+		peptideDictionary = new PeptideDictionary(this, peptideTable);
 			
 		return peptideTable;
 	}
 	
+	/**
+	 * gets the distinct peptides of the database
+	 * @return the dictionary built by extractPeptideFromSeq2(), or restored with an index file
+	 * */
+	public PeptideDictionary getPeptideDictionary(){
+		return peptideDictionary;
+	}
+	
+	public void setPeptideDictionary(PeptideDictionary dictionary){
+		peptideDictionary = dictionary;
+	}
+	
 	/**
 	 * extracts peptide information from one sequence
 	 * @param seqIndex
@@ -290,6 +322,86 @@ public class ProteinDatabase {
 		writer.close();
 	}
 	
+	/**
+	 * gets the positions in the combined sequence where peptides start, used to build a sparse index
+	 * @param peptideTable
+	 * 			the peptide table returned by extractPeptideFromSeq2()
+	 * @param numOffsets
+	 * 			the number of positions following each peptide start that are also returned (inside the peptide)
+	 * @return the positions in ascending order
+	 * */
+	public int[] getPeptideStartPositions(Vector<Vector<Integer>> peptideTable, int numOffsets){
+		IntList positions = new IntList();
+		int seqStart = 0;
+		for (int i=0; i<size(); i++){
+			Vector<Integer> peptideInfo = peptideTable.get(i);
+			for (int j=0; j<peptideInfo.size(); j++){
+				int start = peptideInfo.get(j);
+				int end = j+1 < peptideInfo.size() ? peptideInfo.get(j+1) : getSeqLength(i);
+				for (int k=start; k<end && k<=start+numOffsets; k++)
+					positions.add(seqStart+k);
+			}
+			seqStart += getSeqLength(i) + 1;
+		}
+		return positions.toArray();
+	}
+	
+	/**
+	 * creates a database holding a range of the proteins of this database
+	 * @param first
+	 * 			index of the first protein
+	 * @param last
+	 * 			index after the last protein, the proteins range from [first, last)
+	 * @return the new database, with the same combined sequence as if it had been loaded from a file
+	 * */
+	public ProteinDatabase subDatabase(int first, int last){
+		ProteinDatabase database = new ProteinDatabase();
+		for (int i=first; i<last; i++){
+			database.addParsedProteinID(getProteinID(i));
+			database.addIndividualSeq(getIndividualSeq(i));
+		}
+		database.buildSequence();
+		return database;
+	}
+	
+	/**
+	 * builds the combined sequence from the individual sequences, in the same way as DatabaseFileHandler.loadDatabase()
+	 * */
+	public void buildSequence(){
+		StringBuilder text = new StringBuilder();
+		for (int i=0; i<size(); i++){
+			if (i > 0)
+				text.append('#');
+			text.append(getIndividualSeq(i));
+		}
+		text.append('$');
+		setSequence(text.toString().replace('L', 'I'));
+	}
+	
+	/**
+	 * splits the proteins into shards of about the same number of residues
+	 * @param numShards
+	 * 			the number of shards, reduced to size() if there are fewer proteins
+	 * @return the index of the first protein of each shard, followed by size()
+	 * */
+	public int[] getShardBoundaries(int numShards){
+		numShards = Math.max(1, Math.min(numShards, size()));
+		long total = 0;
+		for (int i=0; i<size(); i++)
+			total += getSeqLength(i);
+		int[] boundaries = new int[numShards+1];
+		int shard = 1;
+		long length = 0;
+		for (int i=0; i<size() && shard<numShards; i++){
+			length += getSeqLength(i);
+			//leave at least one protein for each of the remaining shards
+			if (length*numShards >= total*shard || size()-i-1 == numShards-shard)
+				boundaries[shard++] = i+1;
+		}
+		boundaries[numShards] = size();
+		return boundaries;
+	}
+	
 	public void freeMem(Vector<Vector<Integer>> peptideTable){
 		for (int i=0; i<peptideTable.size(); i++){
 			peptideTable.get(i).clear();
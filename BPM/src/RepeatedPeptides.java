@@ -0,0 +1,151 @@
+import java.util.Arrays;
+import java.util.Comparator;
+
+
+/**
+ * The distinct peptides occurring more than once in the database of an index over the first occurrences of the
+ * distinct peptides (index type "unique"), see UniquePeptideSearch. The index holds the text following the first
+ * occurrence of a peptide only, so a match found there holds for the other occurrences if it ends within the
+ * peptide and the residues following every occurrence alike. For each peptide the number of these common residues
+ * is kept, and the repeated peptides are sorted by mass so that the ones of a scan can be enumerated.
+ * Built once for an index, read-only afterwards and shared by its searches.
+ * */
+public class RepeatedPeptides {
+	public static final int MAX_COMMON_LENGTH = 64;//the common residues are compared up to this length
+	public static final int UNLIMITED = Integer.MAX_VALUE;
+
+	private LeafPeptideTable leafTable;
+	private PeptideDictionary dictionary;
+	private FlatSuffixTree tree;//gives the text
+	private int[] commonLength;//indexed by peptide id, UNLIMITED if every occurrence is followed alike
+	private int[] byMass;//the ids of the repeated peptides by ascending mass
+	private int[] mass;//the masses of byMass
+
+	/**
+	 * constructor
+	 * @param tree
+	 * 			the index, its leaf table has unique peptides
+	 * */
+	public RepeatedPeptides(FlatSuffixTree tree){
+		this.tree = tree;
+		leafTable = tree.getLeafTable();
+		dictionary = leafTable.getPeptideDictionary();
+		commonLength = new int[dictionary.size()];
+		IntList repeated = new IntList();
+		for (int id=0; id<dictionary.size(); id++){
+			commonLength[id] = computeCommonLength(id);
+			if (dictionary.getNumOccurrences(id) > 1)
+				repeated.add(id);
+		}
+
+		Integer[] order = new Integer[repeated.size()];
+		for (int i=0; i<order.length; i++)
+			order[i] = repeated.get(i);
+		Arrays.sort(order, new Comparator<Integer>(){
+			public int compare(Integer a, Integer b){
+				return Integer.compare(dictionary.getPeptideMass(a), dictionary.getPeptideMass(b));
+			}
+		});
+		byMass = new int[order.length];
+		mass = new int[order.length];
+		for (int i=0; i<order.length; i++){
+			byMass[i] = order[i];
+			mass[i] = dictionary.getPeptideMass(order[i]);
+		}
+	}
+
+	/**
+	 * compares the residues following each occurrence of a peptide with the ones following its first occurrence
+	 * @return the number of residues common to all of them, UNLIMITED if they are all followed alike up to
+	 * 			the end of their sequences
+	 * */
+	private int computeCommonLength(int id){
+		int length = dictionary.getPeptideLength(id);
+		int firstEnd = getPosition(dictionary.getOccurrence(id, 0)) + length;
+		int common = UNLIMITED;
+		for (int k=1; k<dictionary.getNumOccurrences(id); k++){
+			int end = getPosition(dictionary.getOccurrence(id, k)) + length;
+			int l = 0;
+			while (l < MAX_COMMON_LENGTH && tree.charAt(firstEnd+l) == tree.charAt(end+l) && isResidue(tree.charAt(end+l)))
+				l++;
+			if (l == MAX_COMMON_LENGTH || tree.charAt(firstEnd+l) != tree.charAt(end+l))
+				common = Math.min(common, l);
+			//else both sequences end there, no match goes past it
+		}
+		return common;
+	}
+
+	private static boolean isResidue(char ch){
+		return ch != '#' && ch != '$';
+	}
+
+	/**
+	 * gets a character of the combined sequence the index is built from
+	 * */
+	public char charAt(int pos){
+		return tree.charAt(pos);
+	}
+
+	/**
+	 * gets the text position of a peptide of the database
+	 * @param g
+	 * 			the peptide number, counting every occurrence, see PeptideDictionary.getOccurrence()
+	 * */
+	public int getPosition(int g){
+		return leafTable.getSeqStart(dictionary.getSeqNum(g)) + dictionary.getPeptideStart(g);
+	}
+
+	/**
+	 * gets the text position of the first occurrence of a distinct peptide, the one covered by the index
+	 * */
+	public int getFirstPosition(int id){
+		return getPosition(dictionary.getOccurrence(id, 0));
+	}
+
+	/**
+	 * test if every match starting at an offset of a peptide is the same at all its occurrences
+	 * @param offset
+	 * 			the offset of the match in the peptide
+	 * @param span
+	 * 			the largest number of residues a match may cover
+	 * */
+	public boolean isCommon(int id, int offset, int span){
+		return (long) dictionary.getPeptideLength(id) - offset + commonLength[id] >= span;
+	}
+
+	/**
+	 * gets the number of repeated peptides
+	 * */
+	public int size(){
+		return byMass.length;
+	}
+
+	/**
+	 * gets the id of a repeated peptide
+	 * @param i
+	 * 			the rank of the peptide by mass
+	 * */
+	public int getId(int i){
+		return byMass[i];
+	}
+
+	public int getMass(int i){
+		return mass[i];
+	}
+
+	/**
+	 * finds the first repeated peptide whose mass is not smaller than a given mass
+	 * @return its rank by mass, size() if there is none
+	 * */
+	public int findMass(int minMass){
+		int low = 0, high = mass.length;
+		while (low < high){
+			int middle = (low+high)>>>1;
+			if (mass[middle] < minMass)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+}
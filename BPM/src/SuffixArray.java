@@ -0,0 +1,289 @@
+import java.util.Arrays;
+
+
+/**
+ * Suffix array and LCP array of the combined sequence of a protein database.
+ *
+ * The text is mapped to an integer alphabet ('$'=0, '#'=1, amino acids 2..20 following MassTable.aminoAcidIndex),
+ * so the unique terminating '$' is the smallest character as required by the SA-IS construction.
+ * sa[i] is the start position of the i-th smallest suffix; lcp[i] is the length of the longest common prefix
+ * of the suffixes sa[i-1] and sa[i] (lcp[0] = 0).
+ *
+ * The suffixes sharing a prefix of length d form an interval [lo, hi) of the suffix array (an LCP interval),
+ * which plays the role of a node (or a position in the middle of an edge) of the suffix tree.
+ * */
+public class SuffixArray {
+	public static final int ALPHABET_SIZE = 21;
+
+	private byte[] text;
+	private int[] sa;
+	private int[] lcp;
+
+	/**
+	 * constructor
+	 * @param sequence
+	 * 			the combined sequence, see ProteinDatabase.getSequence(), must end with a single '$'
+	 * */
+	public SuffixArray(String sequence){
+		this(sequence, true);
+	}
+	
+	/**
+	 * constructor
+	 * @param sequence
+	 * 			the combined sequence, see ProteinDatabase.getSequence(), must end with a single '$'
+	 * @param computeLcp
+	 * 			false if the lcp array is not needed
+	 * */
+	public SuffixArray(String sequence, boolean computeLcp){
+		int n = sequence.length();
+		text = new byte[n];
+		int[] s = new int[n];
+		for (int i=0; i<n; i++){
+			s[i] = getCharacterCode(sequence.charAt(i));
+			text[i] = (byte) s[i];
+		}
+		sa = new int[n];
+		sais(s, sa, n, ALPHABET_SIZE);
+		s = null;
+		if (computeLcp)
+			computeLcp();
+	}
+
+	/**
+	 * get the integer code of a character of the combined sequence
+	 * @param ch
+	 * 			the given character
+	 * @return the code (from 0 to 20) associated with the character
+	 * */
+	public static int getCharacterCode(char ch){
+		if (ch == '$')
+			return 0;
+		else if (ch == '#')
+			return 1;
+		else
+			return MassTable.aminoAcidIndex[ch-'A'] + 2;
+	}
+
+	public int length(){
+		return sa.length;
+	}
+
+	/**
+	 * gets the start position of the i-th smallest suffix
+	 * */
+	public int getSuffix(int i){
+		return sa[i];
+	}
+
+	/**
+	 * gets the length of the longest common prefix of the (i-1)-th and the i-th smallest suffixes
+	 * */
+	public int getLcp(int i){
+		return lcp[i];
+	}
+
+	/**
+	 * gets the suffix array itself, not copied, used by ParallelSuffixTreeBuilder
+	 * */
+	int[] getSuffixes(){
+		return sa;
+	}
+
+	/**
+	 * gets the lcp array itself, not copied, null if it was not computed
+	 * */
+	int[] getLcps(){
+		return lcp;
+	}
+
+	/**
+	 * gets the code of the character at the given text position
+	 * */
+	public int codeAt(int pos){
+		return text[pos];
+	}
+
+	/**
+	 * gets the code of the character at offset depth of the i-th smallest suffix
+	 * */
+	public int codeAt(int i, int depth){
+		return text[sa[i]+depth];
+	}
+
+	/**
+	 * gets the depth of the LCP interval [lo, hi), i.e. the length of the prefix shared by all the suffixes in it
+	 * @return the common prefix length, Integer.MAX_VALUE for a single suffix
+	 * */
+	public int getIntervalDepth(int lo, int hi){
+		if (hi - lo == 1)
+			return Integer.MAX_VALUE;
+		int min = Integer.MAX_VALUE;
+		for (int i=lo+1; i<hi; i++)
+			if (min > lcp[i])
+				min = lcp[i];
+		return min;
+	}
+
+	/**
+	 * finds the first suffix in [lo, hi) whose character at offset depth is not smaller than code.
+	 * All the suffixes in [lo, hi) must share a prefix of length depth.
+	 * */
+	public int lowerBound(int lo, int hi, int depth, int code){
+		while (lo < hi){
+			int middle = (lo+hi)>>>1;
+			if (text[sa[middle]+depth] < code)
+				lo = middle + 1;
+			else
+				hi = middle;
+		}
+		return lo;
+	}
+
+	/**
+	 * computes the lcp array by Kasai's algorithm
+	 * */
+	private void computeLcp(){
+		int n = sa.length;
+		int[] rank = new int[n];
+		for (int i=0; i<n; i++)
+			rank[sa[i]] = i;
+		lcp = new int[n];
+		int h = 0;
+		for (int i=0; i<n; i++){
+			if (rank[i] > 0){
+				int j = sa[rank[i]-1];
+				while (i+h < n && j+h < n && text[i+h] == text[j+h])
+					h++;
+				lcp[rank[i]] = h;
+				if (h > 0)
+					h--;
+			}
+			else
+				h = 0;
+		}
+	}
+
+	/**
+	 * SA-IS suffix array construction (Nong, Zhang and Chan), linear time
+	 * @param s
+	 * 			the text, s[n-1] must be the unique smallest character
+	 * @param sa
+	 * 			the output suffix array
+	 * @param n
+	 * 			the length of the text
+	 * @param k
+	 * 			the size of the alphabet, characters range from 0 to k-1
+	 * */
+	private static void sais(int[] s, int[] sa, int n, int k){
+		if (n == 1){
+			sa[0] = 0;
+			return;
+		}
+		//t[i]: true if suffix i is S-type
+		boolean[] t = new boolean[n];
+		t[n-1] = true;
+		for (int i=n-2; i>=0; i--)
+			t[i] = s[i] < s[i+1] || (s[i] == s[i+1] && t[i+1]);
+
+		//stage 1: sort the LMS substrings
+		int[] bkt = new int[k];
+		getBuckets(s, bkt, n, k, true);
+		Arrays.fill(sa, -1);
+		for (int i=1; i<n; i++)
+			if (isLMS(t, i))
+				sa[--bkt[s[i]]] = i;
+		induceSAl(t, sa, s, bkt, n, k);
+		induceSAs(t, sa, s, bkt, n, k);
+
+		//compact the sorted LMS substrings into the first n1 items
+		int n1 = 0;
+		for (int i=0; i<n; i++)
+			if (isLMS(t, sa[i]))
+				sa[n1++] = sa[i];
+
+		//name the LMS substrings
+		Arrays.fill(sa, n1, n, -1);
+		int name = 0, prev = -1;
+		for (int i=0; i<n1; i++){
+			int pos = sa[i];
+			boolean diff = false;
+			for (int d=0; d<n; d++){
+				if (prev == -1 || s[pos+d] != s[prev+d] || t[pos+d] != t[prev+d]){
+					diff = true;
+					break;
+				}
+				else if (d > 0 && (isLMS(t, pos+d) || isLMS(t, prev+d)))
+					break;
+			}
+			if (diff){
+				name++;
+				prev = pos;
+			}
+			sa[n1 + pos/2] = name - 1;
+		}
+		int[] s1 = new int[n1];
+		for (int i=n-1, j=n1-1; i>=n1; i--)
+			if (sa[i] >= 0)
+				s1[j--] = sa[i];
+
+		//stage 2: sort the reduced problem, recursively if the names are not unique
+		int[] sa1 = new int[n1];
+		if (name < n1)
+			sais(s1, sa1, n1, name);
+		else
+			for (int i=0; i<n1; i++)
+				sa1[s1[i]] = i;
+
+		//stage 3: induce the suffix array from the sorted LMS suffixes
+		for (int i=1, j=0; i<n; i++)
+			if (isLMS(t, i))
+				s1[j++] = i;
+		for (int i=0; i<n1; i++)
+			sa[i] = s1[sa1[i]];
+		s1 = null;
+		sa1 = null;
+		Arrays.fill(sa, n1, n, -1);
+		getBuckets(s, bkt, n, k, true);
+		for (int i=n1-1; i>=0; i--){
+			int j = sa[i];
+			sa[i] = -1;
+			sa[--bkt[s[j]]] = j;
+		}
+		induceSAl(t, sa, s, bkt, n, k);
+		induceSAs(t, sa, s, bkt, n, k);
+	}
+
+	private static boolean isLMS(boolean[] t, int i){
+		return i > 0 && t[i] && !t[i-1];
+	}
+
+	private static void getBuckets(int[] s, int[] bkt, int n, int k, boolean end){
+		Arrays.fill(bkt, 0);
+		for (int i=0; i<n; i++)
+			bkt[s[i]]++;
+		int sum = 0;
+		for (int i=0; i<k; i++){
+			sum += bkt[i];
+			bkt[i] = end ? sum : sum - bkt[i];
+		}
+	}
+
+	private static void induceSAl(boolean[] t, int[] sa, int[] s, int[] bkt, int n, int k){
+		getBuckets(s, bkt, n, k, false);
+		for (int i=0; i<n; i++){
+			int j = sa[i] - 1;
+			if (j >= 0 && !t[j])
+				sa[bkt[s[j]]++] = j;
+		}
+	}
+
+	private static void induceSAs(boolean[] t, int[] sa, int[] s, int[] bkt, int n, int k){
+		getBuckets(s, bkt, n, k, true);
+		for (int i=n-1; i>=0; i--){
+			int j = sa[i] - 1;
+			if (j >= 0 && t[j])
+				sa[--bkt[s[j]]] = j;
+		}
+	}
+}
@@ -0,0 +1,177 @@
+import java.util.Iterator;
+
+
+/**
+ * Searches patterns against a suffix array, answering the same queries as PatternSearch does on a suffix tree.
+ * A matched position is an LCP interval [lo, hi) of the suffix array together with the number of
+ * characters matched so far (depth); the lists of matched positions store these three numbers per entry.
+ * */
+public class SuffixArraySearch implements IndexSearch {
+	//intervals with at most this many suffixes get their depth from the lcp array
+	private static final int LCP_SCAN_LIMIT = 64;
+	
+	private SuffixArray sa;
+	private LeafPeptideTable leafTable;
+	private MassTable massTable;
+	private PeptideFileHandler pf;
+	private IntList list1;
+	private IntList list2;
+	private int scaledErrorTolerance;
+	
+	/**
+	 * constructor
+	 * @param sa suffix array
+	 * @param leafTable peptide information of each suffix
+	 * @param mt mass table
+	 * */
+	public SuffixArraySearch(SuffixArray sa, LeafPeptideTable leafTable, MassTable mt, PeptideFileHandler pf){
+		this.sa = sa;
+		this.leafTable = leafTable;
+		massTable = mt;
+		this.pf = pf;
+		list1 = new IntList();
+		list2 = new IntList();
+		scaledErrorTolerance = (int)Math.round(PatternSearch.errorTolerance*massTable.getScaleFactor());
+	}
+	
+	public IntList searchLeafPositions(Pattern pattern, int scanNum){
+		if (pattern.length() <= 0)
+			return null;
+		list1.clear();
+		list1.add(0);
+		list1.add(sa.length());
+		list1.add(0);
+		for (int i=0; i<pattern.length(); i++){
+			searchPattern(pattern.get(i));
+			//no match found
+			if (list2.size() == 0)
+				return null;
+			//swap list1 and list2
+			IntList tmpList = list1;
+			list1 = list2;
+			list2 = tmpList;
+			list2.clear();
+		}
+		
+		IntList leafSet = new IntList();
+		collectLeaves(list1, pf.getMassValue(scanNum), leafSet);
+		list1.clear();
+		return leafSet;
+	}
+	
+	public IntList searchLeafPositions(PatternTrie trie, int scanNum){
+		IntList saved1 = list1, saved2 = list2;
+		IntList root = new IntList();
+		root.add(0);
+		root.add(sa.length());
+		root.add(0);
+		IntList leafSet = new IntList();
+		matchTrie(trie, PatternTrie.ROOT, root, pf.getMassValue(scanNum), leafSet);
+		list1 = saved1;
+		list2 = saved2;
+		return leafSet;
+	}
+	
+	/**
+	 * matches the masses of the children of a trie node from the positions matched by the node, and the leaves
+	 * of the positions matched by a complete pattern are collected
+	 * @param matched
+	 * 			the positions matched by the path to the node
+	 * */
+	private void matchTrie(PatternTrie trie, int node, IntList matched, int refMass, IntList leafSet){
+		for (int child=trie.getFirstChild(node); child!=PatternTrie.NIL; child=trie.getNextSibling(child)){
+			list1 = matched;
+			list2 = new IntList();
+			searchPattern(trie.getMass(child));
+			IntList next = list2;
+			if (next.size() == 0)
+				continue;
+			if (trie.endsPattern(child))
+				collectLeaves(next, refMass, leafSet);
+			matchTrie(trie, child, next, refMass, leafSet);
+		}
+	}
+	
+	/**
+	 * collects the suffixes of matched positions whose peptide mass is within the result error tolerance
+	 * */
+	private void collectLeaves(IntList matched, int refMass, IntList leafSet){
+		for (int k=0; k<matched.size(); k+=3){
+			int hi = matched.get(k+1);
+			for (int i=matched.get(k); i<hi; i++){
+				int pos = sa.getSuffix(i);
+				if (leafTable.inErrorTolerance(pos, refMass))
+					leafSet.add(pos);
+			}
+		}
+	}
+	
+	/**
+	 * extends every matched position in list1 with the strings of a given mass, the results are stored in list2
+	 * @param mass 
+	 * 			a given integer value
+	 * */
+	public void searchPattern(int mass){
+		for (int i=-scaledErrorTolerance; i<=scaledErrorTolerance; i++){
+			if ((mass+i)<=0 || (mass+i)>massTable.getMaxSize())
+				continue;
+			Iterator<?> ite = massTable.getMassString(mass+i);
+			while (ite.hasNext()){
+				String str = (String) ite.next();
+				for (int k=0; k<list1.size(); k+=3)
+					searchPattern(str, list1.get(k), list1.get(k+1), list1.get(k+2));
+			}
+		}
+	}
+	
+	/**
+	 * search a particular string from a matched position, the new position is added to list2 if matched
+	 * @param str 
+	 * 			the string to be searched
+	 * @param lo
+	 * 			first suffix of the interval
+	 * @param hi
+	 * 			end of the interval (exclusive)
+	 * @param depth
+	 * 			the number of characters matched so far
+	 * */
+	private void searchPattern(String str, int lo, int hi, int depth){
+		int intervalDepth = getIntervalDepth(lo, hi, depth);
+		for (int i=0; i<str.length(); i++){
+			int code = SuffixArray.getCharacterCode(str.charAt(i));
+			if (depth < intervalDepth){
+				//all the suffixes share this character, compare with any of them
+				if (sa.codeAt(lo, depth) != code)
+					return;
+			}
+			else {
+				int newLo = sa.lowerBound(lo, hi, depth, code);
+				if (newLo == hi || sa.codeAt(newLo, depth) != code)
+					return;
+				hi = sa.lowerBound(newLo, hi, depth, code+1);
+				lo = newLo;
+				intervalDepth = getIntervalDepth(lo, hi, depth+1);
+			}
+			depth++;
+		}
+		list2.add(lo);
+		list2.add(hi);
+		list2.add(depth);
+	}
+	
+	/**
+	 * gets the length of the prefix shared by the suffixes in [lo, hi), at least the given depth.
+	 * Large intervals are not scanned, they are split character by character instead.
+	 * */
+	private int getIntervalDepth(int lo, int hi, int depth){
+		if (hi - lo > LCP_SCAN_LIMIT)
+			return depth;
+		return sa.getIntervalDepth(lo, hi);
+	}
+	
+	/**
+	 * nothing to reset, the matched positions do not outlive a pattern
+	 * */
+	public void startScan(){
+	}
+}
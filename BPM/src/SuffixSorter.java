@@ -0,0 +1,121 @@
+/**
+ * Sorts suffixes of a text by multikey quicksort, used by PartitionedIndexBuilder to sort the suffixes of a group
+ * without the suffix array of the whole text. Sorting takes time proportional to the total length of the common
+ * prefixes of neighbouring suffixes, which grows quadratically with the length of repeated sequences; the builders
+ * that can afford a suffix array take the order and the common prefixes from it (see ParallelSuffixTreeBuilder).
+ * The text is given as character codes and must end with a unique character, so that two different suffixes
+ * always differ before the end of the text. The suffixes to sort are leaves, mapped to their start positions
+ * by a leaf position array (or equal to them).
+ * */
+class SuffixSorter {
+	private static final int INSERTION_SORT_THRESHOLD = 16;
+
+	private byte[] codes;
+	private int[] leafPosition;
+
+	/**
+	 * constructor
+	 * @param codes
+	 * 			the codes of the characters of the text
+	 * @param leafPosition
+	 * 			the start positions of the suffixes of the leaves, null if a leaf is its start position
+	 * */
+	SuffixSorter(byte[] codes, int[] leafPosition){
+		this.codes = codes;
+		this.leafPosition = leafPosition;
+	}
+
+	private int positionOf(int leaf){
+		return leafPosition == null ? leaf : leafPosition[leaf];
+	}
+
+	/**
+	 * sorts the suffixes in suffixes[lo, hi), which share a prefix of length depth, by multikey quicksort.
+	 * The partitions are kept on an explicit stack since long repeats would make the recursion too deep.
+	 * */
+	void sort(int[] suffixes, int lo, int hi, int depth){
+		IntList stack = new IntList();
+		stack.add(lo);
+		stack.add(hi);
+		stack.add(depth);
+		while (!stack.isEmpty()){
+			depth = stack.removeLast();
+			hi = stack.removeLast();
+			lo = stack.removeLast();
+			while (hi - lo > 1){
+				if (hi - lo < INSERTION_SORT_THRESHOLD){
+					insertionSort(suffixes, lo, hi, depth);
+					break;
+				}
+				int pivot = medianOfThree(codeAt(suffixes, lo, depth), codeAt(suffixes, (lo+hi)>>>1, depth), codeAt(suffixes, hi-1, depth));
+				int lt = lo, gt = hi, i = lo;
+				while (i < gt){
+					int c = codeAt(suffixes, i, depth);
+					if (c < pivot)
+						swap(suffixes, lt++, i++);
+					else if (c > pivot)
+						swap(suffixes, i, --gt);
+					else
+						i++;
+				}
+				stack.add(lo);
+				stack.add(lt);
+				stack.add(depth);
+				stack.add(gt);
+				stack.add(hi);
+				stack.add(depth);
+				//the suffixes in [lt, gt) share one more character
+				lo = lt;
+				hi = gt;
+				depth++;
+			}
+		}
+	}
+
+	private void insertionSort(int[] suffixes, int lo, int hi, int depth){
+		for (int i=lo+1; i<hi; i++){
+			int leaf = suffixes[i];
+			int j = i;
+			while (j > lo && compare(positionOf(suffixes[j-1]), positionOf(leaf), depth) > 0){
+				suffixes[j] = suffixes[j-1];
+				j--;
+			}
+			suffixes[j] = leaf;
+		}
+	}
+
+	/**
+	 * compares two different suffixes sharing a prefix of length depth
+	 * */
+	private int compare(int pos1, int pos2, int depth){
+		while (codes[pos1+depth] == codes[pos2+depth])
+			depth++;
+		return codes[pos1+depth] - codes[pos2+depth];
+	}
+
+	/**
+	 * gets the length of the common prefix of two different suffixes sharing a prefix of length depth
+	 * */
+	int commonPrefixLength(int pos1, int pos2, int depth){
+		while (codes[pos1+depth] == codes[pos2+depth])
+			depth++;
+		return depth;
+	}
+
+	private int codeAt(int[] suffixes, int i, int depth){
+		return codes[positionOf(suffixes[i])+depth];
+	}
+
+	private static int medianOfThree(int a, int b, int c){
+		if (a < b)
+			return b < c ? b : (a < c ? c : a);
+		else
+			return a < c ? a : (b < c ? c : b);
+	}
+
+	private static void swap(int[] suffixes, int i, int j){
+		int tmp = suffixes[i];
+		suffixes[i] = suffixes[j];
+		suffixes[j] = tmp;
+	}
+}
@@ -12,11 +12,13 @@ import java.util.ArrayList;
 import java.util.Vector;
 
 public class SuffixTree {
-    private String text;
+    private String text;//only kept during construction
+    private PackedText packedText;
     private Node root;
     private int seqIndex = 0;
     private int leafCreatedThisStep = 0;
     private ProteinDatabase database = null;
+    private int numNodes = 0;//internal nodes created, including the root and the nodes dropped while building
     
     public SuffixTree(String text) {
         this.text = text;
@@ -24,7 +26,7 @@ public class SuffixTree {
         Suffix active = new Suffix(root, 0, -1);
         for (int i = 0; i < text.length(); i++)
             addPrefix(active, i);
-  
+        packText();
     }
   
     public SuffixTree(String text, ProteinDatabase database) {
@@ -34,7 +36,16 @@ public class SuffixTree {
         Suffix active = new Suffix(root, 0, -1);
         for (int i = 0; i < text.length(); i++)
         	addPrefix(active, i);
-       
+        packText();
+    }
+    
+    /**
+     * replaces the text by its packed form once the tree is built, see PackedText. The packed text only saves
+     * memory if the caller drops its own reference to the text too, see ProteinDatabase.releaseSequence()
+     * */
+    private void packText(){
+    	packedText = new PackedText(text);
+    	text = null;
     }
 
     private void addPrefix(Suffix active, int endIndex) {
@@ -107,12 +118,50 @@ public class SuffixTree {
     public Node getRoot(){
     	return root;
     }
+    
+    /**
+     * gives an id to a new internal node, the ids are 0, 1, ... in the order the nodes are created
+     * */
+    int newNodeId(){
+    	return numNodes++;
+    }
+    
+    /**
+     * gets the number of node ids given so far, every node id is smaller
+     * */
+    public int getNumNodes(){
+    	return numNodes;
+    }
 
     /**
      * get the text associated with the suffix tree
+     * @notes the text is unpacked on every call, use charAt() or getPackedText() to access single characters
      * */
     public String getText() {
-        return text;
+        return text != null ? text : packedText.toString();
+    }
+    
+    /**
+     * gets a character of the text
+     * @param index
+     * 			position in the text
+     * */
+    public char charAt(int index){
+    	return text != null ? text.charAt(index) : packedText.charAt(index);
+    }
+    
+    /**
+     * gets the protein database the tree is built from, null if the tree was built from a plain text
+     * */
+    public ProteinDatabase getProteinDatabase(){
+    	return database;
+    }
+    
+    /**
+     * gets the packed text, used to match edge labels several characters at a time
+     * */
+    public PackedText getPackedText(){
+    	return packedText;
     }
 
     /**
@@ -166,10 +215,8 @@ public class SuffixTree {
 		while (stack.size() > 0){
 			LinkedList<Node> childNodes = new LinkedList<Node>();
 			for (Node node2 : stack){
-				for (int i=0; i<21; i++){
-					Edge edge = node2.getEdge(i);
-					if (edge == null)
-						continue;
+				for (int i=0; i<node2.getNumEdges(); i++){
+					Edge edge = node2.getEdgeAt(i);
 					if (edge.hasEndNode())
 						childNodes.push(edge.getEndNode());
 					else
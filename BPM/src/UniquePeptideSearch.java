@@ -0,0 +1,154 @@
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Searches an index over the first occurrences of the distinct peptides (index type "unique") and reports the
+ * matches at every occurrence. The results are not leaves but the text positions of the matched occurrences,
+ * see DoSearch2.writeResult2File().
+ *
+ * A leaf matched in the index is reported at all the occurrences of its peptide if no match of the searched
+ * patterns from there can go past the residues common to the occurrences (see RepeatedPeptides). Otherwise the
+ * occurrences may match differently, whether or not the first one does: the leaves of these peptides are not
+ * taken from the index, instead each occurrence of the repeated peptides within the mass window of the scan is
+ * matched against its own text.
+ * */
+public class UniquePeptideSearch implements IndexSearch {
+	private IndexSearch search;
+	private RepeatedPeptides repeated;
+	private LeafPeptideTable leafTable;
+	private PeptideDictionary dictionary;
+	private MassTable massTable;
+	private PeptideFileHandler pf;
+	private int[] residueMass;
+	private int minResidueMass;
+	private int scaledErrorTolerance;
+	private ArrayList<Pattern> patterns = new ArrayList<Pattern>(1);
+
+	/**
+	 * constructor
+	 * @param search
+	 * 			a search of the index, giving its leaves
+	 * @param repeated
+	 * 			the repeated peptides of the index, shared by its searches
+	 * */
+	public UniquePeptideSearch(IndexSearch search, RepeatedPeptides repeated, LeafPeptideTable leafTable, MassTable mt, PeptideFileHandler pf){
+		this.search = search;
+		this.repeated = repeated;
+		this.leafTable = leafTable;
+		dictionary = leafTable.getPeptideDictionary();
+		massTable = mt;
+		this.pf = pf;
+		residueMass = PatternSearch.getResidueMasses(mt);
+		minResidueMass = Integer.MAX_VALUE;
+		for (int mass : residueMass){
+			if (mass > 0)
+				minResidueMass = Math.min(minResidueMass, mass);
+		}
+		scaledErrorTolerance = (int)Math.round(PatternSearch.errorTolerance*massTable.getScaleFactor());
+	}
+
+	public IntList searchLeafPositions(Pattern pattern, int scanNum){
+		if (pattern.length() <= 0)
+			return null;
+		patterns.clear();
+		patterns.add(pattern);
+		IntList result = expand(search.searchLeafPositions(pattern, scanNum), patterns, scanNum);
+		return result.size() > 0 ? result : null;
+	}
+
+	public IntList searchLeafPositions(PatternTrie trie, int scanNum){
+		return expand(search.searchLeafPositions(trie, scanNum), trie.getPatterns(), scanNum);
+	}
+
+	public void startScan(){
+		search.startScan();
+	}
+
+	/**
+	 * reports the matches of the patterns of a scan at the occurrences of the peptides
+	 * @param leaves
+	 * 			the leaves matched in the index, may be null
+	 * @return the text positions of the matched occurrences, a position may be reported more than once
+	 * */
+	private IntList expand(IntList leaves, List<Pattern> patterns, int scanNum){
+		int span = getMaxSpan(patterns);
+		IntList result = new IntList();
+		if (leaves != null){
+			for (int i=0; i<leaves.size(); i++){
+				int leaf = leaves.get(i);
+				int id = leafTable.getPeptideId(leaf);
+				int offset = leafTable.getPosition(leaf) - repeated.getFirstPosition(id);
+				if (repeated.isCommon(id, offset, span)){
+					for (int k=0; k<dictionary.getNumOccurrences(id); k++)
+						result.add(repeated.getPosition(dictionary.getOccurrence(id, k)) + offset);
+				}
+			}
+		}
+
+		//the occurrences of the other leaves are matched one by one
+		int refMass = pf.getMassValue(scanNum);
+		int tolerance = DoSearch2.getScaledMassTolerance();
+		for (int i=repeated.findMass(refMass-tolerance); i<repeated.size() && repeated.getMass(i)<=refMass+tolerance; i++){
+			int id = repeated.getId(i);
+			int first = repeated.getFirstPosition(id);
+			int end = first + dictionary.getPeptideLength(id);
+			for (int leaf=leafTable.findLeaf(first); leaf<leafTable.size() && leafTable.getPosition(leaf)<end; leaf++){
+				int offset = leafTable.getPosition(leaf) - first;
+				if (repeated.isCommon(id, offset, span) || !leafTable.inErrorTolerance(leaf, refMass))
+					continue;
+				for (int k=0; k<dictionary.getNumOccurrences(id); k++){
+					int pos = repeated.getPosition(dictionary.getOccurrence(id, k)) + offset;
+					if (matchesAny(patterns, pos))
+						result.add(pos);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * gets the largest number of residues a match of the patterns may cover, each mass is matched by residues
+	 * weighing at least minResidueMass
+	 * */
+	private int getMaxSpan(List<Pattern> patterns){
+		int span = 0;
+		for (Pattern pattern : patterns){
+			int residues = 0;
+			for (int i=0; i<pattern.length(); i++)
+				residues += Math.min(pattern.get(i)+scaledErrorTolerance, massTable.getMaxSize()) / minResidueMass;
+			span = Math.max(span, residues);
+		}
+		return span;
+	}
+
+	private boolean matchesAny(List<Pattern> patterns, int pos){
+		for (Pattern pattern : patterns){
+			if (matches(pattern, 0, pos))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * test if the masses of a pattern from a given one match the text from a position, a mass is matched by
+	 * the residues whose masses add up to it within the search tolerance, as by the strings of the mass table
+	 * */
+	private boolean matches(Pattern pattern, int index, int pos){
+		if (index == pattern.length())
+			return true;
+		int low = Math.max(pattern.get(index)-scaledErrorTolerance, 1);
+		int high = Math.min(pattern.get(index)+scaledErrorTolerance, massTable.getMaxSize());
+		int mass = 0;
+		for (int i=pos; ; i++){
+			char ch = repeated.charAt(i);
+			if (ch >= residueMass.length || residueMass[ch] == 0)
+				return false;
+			mass += residueMass[ch];
+			if (mass > high)
+				return false;
+			if (mass >= low && matches(pattern, index+1, i+1))
+				return true;
+		}
+	}
+}
@@ -32,10 +32,8 @@ public class Util {
 		while (stack.size() > 0) {
 			LinkedList<Node> childNodes = new LinkedList<Node>();
 			for (Node node : stack) {
-				for (int i=0; i<21; i++){
-					Edge edge = node.getEdge(i);
-					if (edge == null)
-						continue;
+				for (int i=0; i<node.getNumEdges(); i++){
+					Edge edge = node.getEdgeAt(i);
 					int id = nodeId++;
 					if (edge.hasEndNode()){
 						childNodes.push(edge.getEndNode());
@@ -69,4 +67,61 @@ public class Util {
 		sb.append("}");
 		return (sb.toString());
 	}
+	
+	static String printTreeForGraphViz(FlatSuffixTree tree) {
+		return printTreeForGraphViz(tree, true);
+	}
+	
+	/**
+	 * Generates a .dot format string for visualizing a flat suffix tree.
+	 * Internal nodes keep their ids, leaf k is numbered nodeCount+k.
+	 * 
+	 * @param tree
+	 *            The tree for which we are generating a dot file.
+	 * @return A string containing the contents of a .dot representation of the
+	 *         tree.
+	 */
+	static String printTreeForGraphViz(FlatSuffixTree tree, boolean printSuffixLinks) {
+		String text = tree.getText();
+		IntList stack = new IntList();
+		stack.add(tree.getRoot());
+
+		StringBuilder sb = new StringBuilder(
+				"\ndigraph suffixTree{\n node [shape=circle, label=\"\", fixedsize=true, width=0.1, height=0.1]\n");
+
+		while (stack.size() > 0) {
+			IntList childNodes = new IntList();
+			for (int k=0; k<stack.size(); k++) {
+				int node = stack.get(k);
+				for (int child=tree.getFirstChild(node); child!=FlatSuffixTree.NIL; child=tree.getNextSibling(child)){
+					int begin = tree.getEdgeBegin(node, child);
+					int end = tree.getEdgeEnd(node, child);
+					int id;
+					if (FlatSuffixTree.isLeaf(child))
+						id = tree.getNodeCount() + FlatSuffixTree.getLeaf(child);
+					else {
+						id = child;
+						childNodes.add(child);
+					}
+					sb.append(node).append(" -> ").append(id).append(" [label=\"");
+					sb.append(text.substring(begin, end+1));
+					sb.append("\"];");
+					sb.append(" ["+begin+","+end+"]");
+					if (FlatSuffixTree.isLeaf(child))
+						sb.append(" suffixPosition:"+tree.getLeafTable().getSuffixPosition(FlatSuffixTree.getLeaf(child)));
+					sb.append("\n");
+				}
+			}
+			stack = childNodes;
+		}
+		if(printSuffixLinks){
+			sb.append("edge [color=red]\n");
+			for (int node=1; node<tree.getNodeCount(); node++) {
+				if (tree.hasSuffixLink(node))
+					sb.append(node).append(" -> ").append(tree.getSuffixLink(node)).append(" ;\n");
+			}
+		}
+		sb.append("}");
+		return (sb.toString());
+	}
 }
@@ -0,0 +1,203 @@
+/**
+ * A wavelet matrix over a sequence of non-negative values, each value carrying an int payload. It reports the
+ * payloads of the values within [low, high] in any range of positions, in O(numBits) per distinct reported value
+ * plus O(1) per payload, without looking at the values outside of the window.
+ *
+ * Level k holds bit numBits-1-k of every value; the values are stably partitioned by that bit (zeros first)
+ * to give the order of level k+1. After the last level equal values are adjacent, so the payloads are stored
+ * in that order and a query ends with a contiguous range of them.
+ * Each level is stored in blocks of 64 positions, 3 ints per block: the number of 1 bits before the block,
+ * then the low and the high 32 bits of the block. All the levels are kept in a single IntArray, so the matrix
+ * can be moved off-heap or mapped from an index file like the other arrays of an index.
+ * */
+public class WaveletMatrix {
+	private int size;
+	private int numBits;
+	private int blocksPerLevel;
+	private IntArray levels;
+	private IntArray zeros;//number of 0 bits of each level
+	private IntArray payload;//payloads in the order of the last level
+
+	/**
+	 * constructor
+	 * @param values
+	 * 			the values, non-negative
+	 * @param payloads
+	 * 			the payload of each value
+	 * */
+	public WaveletMatrix(IntArray values, IntArray payloads){
+		this(values.copyOf(values.length()), payloads.copyOf(payloads.length()), IntArray.allocate(values.length()),
+				IntArray.allocate(values.length()), null, getNumBits(values));
+	}
+
+	/**
+	 * constructor, builds the matrix in the given arrays, e.g. arrays mapped from files
+	 * @param values
+	 * 			the values, non-negative, overwritten
+	 * @param payloads
+	 * 			the payload of each value, overwritten
+	 * @param buffer1
+	 * 			an array of the same length, used to reorder the values
+	 * @param buffer2
+	 * 			an array of the same length, used to reorder the payloads
+	 * @param levels
+	 * 			an array of getLevelsLength() ints initialized with 0, null to allocate it on the heap
+	 * @param numBits
+	 * 			see getNumBits()
+	 * */
+	WaveletMatrix(IntArray values, IntArray payloads, IntArray buffer1, IntArray buffer2, IntArray levels, int numBits){
+		size = values.length();
+		this.numBits = numBits;
+		blocksPerLevel = (size>>>6) + 1;
+		if (levels == null)
+			levels = IntArray.allocate((int) getLevelsLength(size, numBits));
+		this.levels = levels;
+		zeros = IntArray.allocate(numBits);
+
+		IntArray value = values, nextValue = buffer1;
+		IntArray load = payloads, nextLoad = buffer2;
+		for (int level=0; level<numBits; level++){
+			int bit = numBits-1-level;
+			int base = level*3*blocksPerLevel;
+			int numZeros = 0;
+			for (int i=0; i<size; i++){
+				if ((value.get(i)>>>bit & 1) == 0)
+					numZeros++;
+				else {
+					int index = base + 3*(i>>>6) + 1 + ((i>>>5) & 1);
+					levels.set(index, levels.get(index) | 1<<(i & 31));
+				}
+			}
+			int ones = 0;
+			for (int block=0; block<blocksPerLevel; block++){
+				levels.set(base+3*block, ones);
+				ones += Integer.bitCount(levels.get(base+3*block+1)) + Integer.bitCount(levels.get(base+3*block+2));
+			}
+			zeros.set(level, numZeros);
+
+			int z = 0, o = numZeros;
+			for (int i=0; i<size; i++){
+				int v = value.get(i);
+				int k = (v>>>bit & 1) == 0 ? z++ : o++;
+				nextValue.set(k, v);
+				nextLoad.set(k, load.get(i));
+			}
+			IntArray tmp = value; value = nextValue; nextValue = tmp;
+			tmp = load; load = nextLoad; nextLoad = tmp;
+		}
+		payload = load;
+	}
+
+	/**
+	 * gets the number of bits of the largest value
+	 * */
+	static int getNumBits(IntArray values){
+		int max = 0;
+		for (int i=0; i<values.length(); i++)
+			max = Math.max(max, values.get(i));
+		return 32 - Integer.numberOfLeadingZeros(max);
+	}
+
+	/**
+	 * constructor, restores a matrix saved by IndexFileHandler
+	 * @param arrays
+	 * 			the arrays of the matrix, in the order given by getArrays()
+	 * */
+	WaveletMatrix(IntArray[] arrays){
+		levels = arrays[0];
+		zeros = arrays[1];
+		payload = arrays[2];
+		size = payload.length();
+		numBits = zeros.length();
+		blocksPerLevel = (size>>>6) + 1;
+	}
+
+	/**
+	 * gets the arrays of the matrix, used to save it to disk
+	 * @return levels, zeros and payload, see getLevelsLength()
+	 * */
+	IntArray[] getArrays(){
+		return new IntArray[]{levels, zeros, payload};
+	}
+
+	/**
+	 * gets the number of ints of the levels array of a matrix
+	 * */
+	static long getLevelsLength(int size, int numBits){
+		return (long) numBits*3*((size>>>6) + 1);
+	}
+
+	public int getNumBits(){
+		return numBits;
+	}
+
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * moves the arrays to off-heap memory
+	 * */
+	public void moveOffHeap(){
+		levels = levels.toDirect();
+		zeros = zeros.toDirect();
+		payload = payload.toDirect();
+	}
+
+	/**
+	 * gets the number of 1 bits of a level before a position
+	 * */
+	private int rank1(int level, int pos){
+		int index = level*3*blocksPerLevel + 3*(pos>>>6);
+		int offset = pos & 63;
+		long word = (long) levels.get(index+2)<<32 | (levels.get(index+1) & 0xffffffffL);
+		return levels.get(index) + Long.bitCount(word & ((1L<<offset) - 1));
+	}
+
+	/**
+	 * counts the values within [low, high] at the positions [from, to)
+	 * */
+	public int count(int from, int to, int low, int high){
+		return count(0, from, to, 0, low, high);
+	}
+
+	private int count(int level, int from, int to, int value, int low, int high){
+		if (from >= to)
+			return 0;
+		long last = value + (1L<<(numBits-level)) - 1;//the values below this node are [value, last]
+		if (last < low || value > high)
+			return 0;
+		if (value >= low && last <= high)
+			return to - from;
+		int onesFrom = rank1(level, from), onesTo = rank1(level, to);
+		int z = zeros.get(level);
+		return count(level+1, from-onesFrom, to-onesTo, value, low, high)
+				+ count(level+1, z+onesFrom, z+onesTo, value | 1<<(numBits-1-level), low, high);
+	}
+
+	/**
+	 * reports the payloads of the values within [low, high] at the positions [from, to)
+	 * @param result
+	 * 			the payloads are added to it, in the order of their values
+	 * */
+	public void report(int from, int to, int low, int high, IntList result){
+		report(0, from, to, 0, low, high, result);
+	}
+
+	private void report(int level, int from, int to, int value, int low, int high, IntList result){
+		if (from >= to)
+			return;
+		long last = value + (1L<<(numBits-level)) - 1;
+		if (last < low || value > high)
+			return;
+		if (level == numBits){
+			for (int i=from; i<to; i++)
+				result.add(payload.get(i));
+			return;
+		}
+		int onesFrom = rank1(level, from), onesTo = rank1(level, to);
+		int z = zeros.get(level);
+		report(level+1, from-onesFrom, to-onesTo, value, low, high, result);
+		report(level+1, z+onesFrom, z+onesTo, value | 1<<(numBits-1-level), low, high, result);
+	}
+}
@@ -0,0 +1,63 @@
+import java.util.Arrays;
+import java.util.Random;
+
+
+/**
+ * Checks the range queries of WaveletMatrix against a linear scan of the values, on random values with many
+ * duplicates (like the peptide masses of the leaves), on the heap and off-heap. Exits with status 1 on a mismatch.
+ * */
+public class WaveletMatrixTest {
+	private static final int QUERIES = 2000;
+
+	public static void main(String[] args){
+		Random random = new Random(args.length > 0 ? Long.parseLong(args[0]) : 17);
+		int failures = 0;
+		for (int size : new int[]{1, 2, 63, 64, 65, 1000, 20000}){
+			for (int maxValue : new int[]{1, 100, 1<<20}){
+				int[] values = new int[size];
+				int[] payloads = new int[size];
+				for (int i=0; i<size; i++){
+					values[i] = random.nextInt(maxValue);
+					payloads[i] = i;
+				}
+				WaveletMatrix matrix = new WaveletMatrix(IntArray.wrap(values), IntArray.wrap(payloads));
+				failures += check(matrix, values, maxValue, random);
+				matrix.moveOffHeap();
+				failures += check(matrix, values, maxValue, random);
+			}
+		}
+		if (failures > 0){
+			System.out.println("WaveletMatrixTest: "+failures+" queries differ from the linear scan");
+			System.exit(1);
+		}
+		System.out.println("WaveletMatrixTest: ok");
+	}
+
+	/**
+	 * runs random queries, including empty ranges and windows outside of the values
+	 * @return the number of queries whose count or payloads differ from the linear scan
+	 * */
+	private static int check(WaveletMatrix matrix, int[] values, int maxValue, Random random){
+		int failures = 0;
+		for (int q=0; q<QUERIES; q++){
+			int from = random.nextInt(values.length+1);
+			int to = from + random.nextInt(values.length-from+1);
+			int low = random.nextInt(maxValue+2) - 1;
+			int high = q % 10 == 0 ? low - 1 : low + random.nextInt(maxValue/4+2);
+
+			IntList expected = new IntList();
+			for (int i=from; i<to; i++)
+				if (values[i] >= low && values[i] <= high)
+					expected.add(i);
+			IntList reported = new IntList();
+			matrix.report(from, to, low, high, reported);
+			int[] sorted = reported.toArray();
+			Arrays.sort(sorted);
+			if (matrix.count(from, to, low, high) != expected.size() || !Arrays.equals(sorted, expected.toArray())){
+				System.out.println("mismatch: size "+values.length+", positions ["+from+", "+to+"), values ["+low+", "+high+"]");
+				failures++;
+			}
+		}
+		return failures;
+	}
+}